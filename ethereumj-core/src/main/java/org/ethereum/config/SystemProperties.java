@@ -40,6 +40,19 @@ public class SystemProperties {
     private static int     DEFAULT_MAX_BLOCKS_QUEUED = 300;
     private static String  DEFAULT_PROJECT_VERSION = "";
     private static String  DEFAULT_HELLO_PHRASE = "RJ";
+    private static long    DEFAULT_TRIE_CACHE_SIZE = 0;
+    private static Boolean DEFAULT_TRIE_LAZY_HASH = true;
+    private static int     DEFAULT_TRIE_PARALLEL_HASH_THRESHOLD = 20000;
+    private static int     DEFAULT_DATABASE_BATCH_BLOCKS = 1;
+    private static int     DEFAULT_STATE_PRUNE_KEEP = 0;
+    private static int     DEFAULT_STATE_PRUNE_INTERVAL = 1000;
+    private static String  DEFAULT_DATABASE_ENGINE = "leveldb";
+    private static long    DEFAULT_LEVELDB_CACHE_SIZE = 8 << 20;
+    private static int     DEFAULT_LEVELDB_BLOCK_SIZE = 4 << 10;
+    private static int     DEFAULT_LEVELDB_WRITE_BUFFER_SIZE = 4 << 20;
+    private static int     DEFAULT_LEVELDB_MAX_OPEN_FILES = 1000;
+    private static String  DEFAULT_LEVELDB_COMPRESSION = "none";
+    private static int     DEFAULT_BLOCKS_SEGMENT_SIZE = 64 << 20;
 
 
 	public static SystemProperties CONFIG = new SystemProperties();
@@ -215,6 +228,86 @@ public class SystemProperties {
         return prop.getProperty("hello.phrase");
     }
 
+    /**
+     * @return byte budget for the clean trie nodes kept in memory, 0 - unbounded
+     */
+    public long trieCacheSize() {
+        if(prop.isEmpty()) return DEFAULT_TRIE_CACHE_SIZE;
+        return Long.parseLong(prop.getProperty("trie.cache.size", String.valueOf(DEFAULT_TRIE_CACHE_SIZE)));
+    }
+
+    public boolean trieLazyHash() {
+        if(prop.isEmpty()) return DEFAULT_TRIE_LAZY_HASH;
+        return Boolean.parseBoolean(prop.getProperty("trie.lazy.hash", String.valueOf(DEFAULT_TRIE_LAZY_HASH)));
+    }
+
+    public int trieParallelHashThreshold() {
+        if(prop.isEmpty()) return DEFAULT_TRIE_PARALLEL_HASH_THRESHOLD;
+        return Integer.parseInt(prop.getProperty("trie.parallel.hash.threshold", String.valueOf(DEFAULT_TRIE_PARALLEL_HASH_THRESHOLD)));
+    }
+
+    /**
+     * @return number of blocks written to the db by one batch
+     */
+    public int databaseBatchBlocks() {
+        if(prop.isEmpty()) return DEFAULT_DATABASE_BATCH_BLOCKS;
+        return Integer.parseInt(prop.getProperty("database.batch.blocks", String.valueOf(DEFAULT_DATABASE_BATCH_BLOCKS)));
+    }
+
+    /**
+     * @return number of the last state roots kept by the pruning, 0 keeps all
+     */
+    public int statePruneKeep() {
+        if(prop.isEmpty()) return DEFAULT_STATE_PRUNE_KEEP;
+        return Integer.parseInt(prop.getProperty("state.prune.keep", String.valueOf(DEFAULT_STATE_PRUNE_KEEP)));
+    }
+
+    public int statePruneInterval() {
+        if(prop.isEmpty()) return DEFAULT_STATE_PRUNE_INTERVAL;
+        return Integer.parseInt(prop.getProperty("state.prune.interval", String.valueOf(DEFAULT_STATE_PRUNE_INTERVAL)));
+    }
+
+    /**
+     * @return the storage engine of the databases: leveldb / memory
+     */
+    public String databaseEngine() {
+        if(prop.isEmpty()) return DEFAULT_DATABASE_ENGINE;
+        return prop.getProperty("database.engine", DEFAULT_DATABASE_ENGINE);
+    }
+
+    public long levelDbCacheSize() {
+        if(prop.isEmpty()) return DEFAULT_LEVELDB_CACHE_SIZE;
+        return Long.parseLong(prop.getProperty("database.leveldb.cache.size", String.valueOf(DEFAULT_LEVELDB_CACHE_SIZE)));
+    }
+
+    public int levelDbBlockSize() {
+        if(prop.isEmpty()) return DEFAULT_LEVELDB_BLOCK_SIZE;
+        return Integer.parseInt(prop.getProperty("database.leveldb.block.size", String.valueOf(DEFAULT_LEVELDB_BLOCK_SIZE)));
+    }
+
+    public int levelDbWriteBufferSize() {
+        if(prop.isEmpty()) return DEFAULT_LEVELDB_WRITE_BUFFER_SIZE;
+        return Integer.parseInt(prop.getProperty("database.leveldb.write.buffer.size", String.valueOf(DEFAULT_LEVELDB_WRITE_BUFFER_SIZE)));
+    }
+
+    public int levelDbMaxOpenFiles() {
+        if(prop.isEmpty()) return DEFAULT_LEVELDB_MAX_OPEN_FILES;
+        return Integer.parseInt(prop.getProperty("database.leveldb.max.open.files", String.valueOf(DEFAULT_LEVELDB_MAX_OPEN_FILES)));
+    }
+
+    public String levelDbCompression() {
+        if(prop.isEmpty()) return DEFAULT_LEVELDB_COMPRESSION;
+        return prop.getProperty("database.leveldb.compression", DEFAULT_LEVELDB_COMPRESSION);
+    }
+
+    /**
+     * @return size in bytes of one segment file of the block store
+     */
+    public int blocksSegmentSize() {
+        if(prop.isEmpty()) return DEFAULT_BLOCKS_SEGMENT_SIZE;
+        return Integer.parseInt(prop.getProperty("database.blocks.segment.size", String.valueOf(DEFAULT_BLOCKS_SEGMENT_SIZE)));
+    }
+
     public String rootHashStart() {
         if(prop.isEmpty()) return null;
         String hash = prop.getProperty("root.hash.start");
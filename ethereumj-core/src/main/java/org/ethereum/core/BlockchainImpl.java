@@ -1,5 +1,6 @@
 package org.ethereum.core;
 
+import org.ethereum.db.BlockHashIndex;
 import org.ethereum.db.RepositoryImpl;
 import org.ethereum.facade.Blockchain;
 import org.ethereum.listener.EthereumListener;
@@ -13,8 +14,6 @@ import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 import static org.ethereum.config.SystemProperties.CONFIG;
 import static org.ethereum.core.Denomination.SZABO;
@@ -64,7 +63,7 @@ public class BlockchainImpl implements Blockchain {
 
     // keep the index of the chain for
     // convenient usage, <block_number, block_hash>
-    private final Map<Long, byte[]> blockCache = new HashMap<>();
+    private final BlockHashIndex blockCache = new BlockHashIndex();
 	
     private final BlockQueue blockQueue = new BlockQueue();
 
@@ -78,20 +77,27 @@ public class BlockchainImpl implements Blockchain {
     }
 
     public byte[] getLatestBlockHash() {
-        if (blockCache.isEmpty())
+        if (lastBlock == null)
             return Genesis.getInstance().getHash();
         else
             return getLastBlock().getHash();
     }
     
+    /**
+     * @return number of the blocks from the genesis to the last one
+     */
     public int getSize() {
-        return blockCache.size();
+        return lastBlock == null ? 0 : (int) lastBlock.getNumber() + 1;
     }
 
     public Block getBlockByNumber(long blockNr) {
     	return repository.getBlock(blockNr);
 	}
 
+    public BigInteger getTotalDifficulty() {
+        return repository.getTotalDifficulty();
+    }
+
     public void add(Block block) {
 
 		if (block == null)
@@ -99,13 +105,13 @@ public class BlockchainImpl implements Blockchain {
 
         // if it is the first block to add
         // make sure the parent is genesis
-		if (blockCache.isEmpty()
+		if (lastBlock == null
 				&& !Arrays.equals(Genesis.getInstance().getHash(),
 						block.getParentHash())) {
 			return;
 		}
         // if there is some blocks already keep chain continuity
-        if (!blockCache.isEmpty()) {
+        if (lastBlock != null) {
             String hashLast = Hex.toHexString(getLastBlock().getHash());
             String blockParentHash = Hex.toHexString(block.getParentHash());
             if (!hashLast.equals(blockParentHash)) return;
@@ -252,7 +258,7 @@ public class BlockchainImpl implements Blockchain {
 		repository.increaseNonce(senderAddress);
 
 		// FIND OUT THE TRANSACTION TYPE
-		byte[] receiverAddress, code = null;
+		byte[] receiverAddress, code = null, codeHash = null;
 		boolean isContractCreation = tx.isContractCreation();
 		if (isContractCreation) {
 			receiverAddress = tx.getContractAddress();
@@ -266,6 +272,7 @@ public class BlockchainImpl implements Blockchain {
 							Hex.toHexString(receiverAddress));
 			} else {
 				code = repository.getCode(receiverAddress);
+				codeHash = repository.getCodeHash(receiverAddress);
 				if (code != null) {
 					if (stateLogger.isDebugEnabled())
 						stateLogger.debug("calling for existing contract: address={}",
@@ -347,7 +354,7 @@ public class BlockchainImpl implements Blockchain {
 						.createProgramInvoke(tx, currBlock, trackRepository);
 				
 				VM vm = new VM();
-				Program program = new Program(code, programInvoke);
+				Program program = new Program(code, codeHash, programInvoke);
 
                 if (CONFIG.playVM())
 				    vm.play(program);
@@ -440,7 +447,7 @@ public class BlockchainImpl implements Blockchain {
         return blockQueue;
     }
     
-    public Map<Long, byte[]> getBlockCache() {
+    public BlockHashIndex getBlockCache() {
     	return this.blockCache;
     }
     
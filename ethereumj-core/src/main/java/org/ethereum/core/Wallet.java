@@ -1,8 +1,8 @@
 package org.ethereum.core;
 
 import org.ethereum.crypto.ECKey;
-import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.net.submit.WalletTransaction;
+import org.ethereum.util.ByteArrayMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -50,7 +50,7 @@ public class Wallet {
 
     private List<WalletListener> listeners = new ArrayList<>();
 
-    private Map<ByteArrayWrapper, Transaction> transactionMap = new HashMap<>();
+    private Map<byte[], Transaction> transactionMap = new ByteArrayMap<>();
 
     public void addNewAccount() {
         Account account = new Account();
@@ -156,7 +156,7 @@ public class Wallet {
 
     public void applyTransaction(Transaction transaction) {
 
-        transactionMap.put(new ByteArrayWrapper(transaction.getHash()), transaction );
+        transactionMap.put(transaction.getHash(), transaction);
 
         byte[] senderAddress = transaction.getSender();
         Account sender =  rows.get(Hex.toHexString(senderAddress));
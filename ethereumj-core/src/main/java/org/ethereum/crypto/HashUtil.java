@@ -6,16 +6,12 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
-import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.util.RLP;
 import org.ethereum.util.Utils;
 import org.spongycastle.util.encoders.Hex;
-import org.ethereum.util.LRUMap;
 
 public class HashUtil {
 
-    private static final int MAX_ENTRIES = 100; // Should contain most commonly hashed values 
-    private static LRUMap<ByteArrayWrapper, byte[]> sha3Cache = new LRUMap<>(0, MAX_ENTRIES);
     public static final byte[] EMPTY_DATA_HASH = Hex.decode("c5d2460186f7233c927e7db2dcc703c0e500b653ca82273b7bfad8045d85a470");
 
     private static final MessageDigest sha256digest;
@@ -33,13 +29,7 @@ public class HashUtil {
     }
 
 	public static byte[] sha3(byte[] input) {
-            ByteArrayWrapper inputByteArray = new ByteArrayWrapper(input);
-            byte[] result = sha3Cache.get(inputByteArray);
-            if(result != null)
-                    return result;
-            result = SHA3Helper.sha3(input);
-            sha3Cache.put(inputByteArray, result);
-            return result; 
+            return SHA3Helper.sha3(input);
 	}
 
     /**
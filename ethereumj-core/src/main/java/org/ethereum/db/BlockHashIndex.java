@@ -0,0 +1,82 @@
+package org.ethereum.db;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The hashes of the blocks by the block number, kept in the chunks
+ * of 32 byte slots instead of a map of boxed numbers, a million of
+ * blocks takes 32 MB. A chunk is allocated by the first number put
+ * in its range, the chunks of the ranges without a number stay null,
+ * the slots which were not set are empty.
+ */
+public class BlockHashIndex {
+
+    private static final int HASH_SIZE = 32;
+    private static final int CHUNK_SLOTS = 1 << 14;
+
+    /* null for the ranges without a number */
+    private final List<byte[]> chunks = new ArrayList<>();
+    private final BitSet filled = new BitSet();
+    private int size;
+
+    public synchronized void put(long number, byte[] hash) {
+        int slot = slot(number);
+        int index = slot / CHUNK_SLOTS;
+        while (chunks.size() <= index)
+            chunks.add(null);
+        byte[] chunk = chunks.get(index);
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SLOTS * HASH_SIZE];
+            chunks.set(index, chunk);
+        }
+
+        System.arraycopy(hash, 0, chunk, (slot % CHUNK_SLOTS) * HASH_SIZE, HASH_SIZE);
+        if (!filled.get(slot)) {
+            filled.set(slot);
+            ++size;
+        }
+    }
+
+    /**
+     * @return a copy of the hash or null if the number was not put
+     */
+    public synchronized byte[] get(long number) {
+        if (number < 0 || number > Integer.MAX_VALUE || !filled.get((int) number))
+            return null;
+
+        // the chunk of a filled slot is allocated
+        int slot = (int) number;
+        byte[] hash = new byte[HASH_SIZE];
+        System.arraycopy(chunks.get(slot / CHUNK_SLOTS), (slot % CHUNK_SLOTS) * HASH_SIZE, hash, 0, HASH_SIZE);
+        return hash;
+    }
+
+    public synchronized boolean contains(long number) {
+        return number >= 0 && number <= Integer.MAX_VALUE && filled.get((int) number);
+    }
+
+    /**
+     * @return number of the hashes put
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void clear() {
+        chunks.clear();
+        filled.clear();
+        size = 0;
+    }
+
+    private static int slot(long number) {
+        if (number < 0 || number > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Block number out of the index: " + number);
+        return (int) number;
+    }
+}
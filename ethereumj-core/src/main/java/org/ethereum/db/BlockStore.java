@@ -0,0 +1,359 @@
+package org.ethereum.db;
+
+import static org.ethereum.config.SystemProperties.CONFIG;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.ethereum.util.ByteUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the RLP encoded blocks out of the key/value store. The blocks
+ * are appended to the segment files, which are memory mapped, so a
+ * block is read by its number without a lookup and without a copy.
+ *
+ * 	blocks.idx:	header (magic, version, count, segment, position,
+ * 				state root of the head), then an entry per block number:
+ * 				hash, segment, offset, length, total difficulty
+ * 	blocks-NNNNN.seg:	the encoded blocks one after another
+ * 	hashes:		hash -> number, kept by the key/value store
+ *
+ * The writes are seen by the reads right away and are made durable
+ * by {@link #flush()}, the header is written last, so after a crash
+ * the store has the blocks of the last flush. A saved number replaces
+ * the block and drops the blocks after it, the index entries of the
+ * flushed blocks are replaced by the next flush.
+ */
+public class BlockStore {
+
+    private static Logger logger = LoggerFactory.getLogger("db");
+
+    private static final int MAGIC = 0x45424c4b; // "EBLK"
+    private static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 128;
+    private static final int STATE_ROOT_OFFSET = 32;
+    private static final int DIFFICULTY_SIZE = 32;
+    private static final int ENTRY_SIZE = 32 + 4 + 4 + 4 + DIFFICULTY_SIZE;
+    /* the index is mapped by regions of this many entries */
+    private static final int REGION_ENTRIES = 1 << 15;
+
+    private final File dir;
+    private final int segmentSize;
+    private final KeyValueStore hashIndex;
+
+    private MappedByteBuffer header;
+    private final List<MappedByteBuffer> index = new ArrayList<>();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    /* the next block is appended to the segment at the position */
+    private long count;
+    private int segment;
+    private int position;
+
+    /* the state of the head, written with the header */
+    private byte[] stateRoot;
+
+    /* the blocks and the hashes saved since the last flush, null deletes the hash */
+    private int flushedSegment;
+    private long flushedCount;
+    private final Map<ByteArrayWrapper, byte[]> pendingHashes = new HashMap<>();
+    /* the entries replacing the flushed ones, by the block number */
+    private final Map<Long, byte[]> pendingEntries = new HashMap<>();
+
+    /**
+     * Opens the store of [database.dir]/name, the store is cleared
+     * by [database.reset] and by the memory engine
+     */
+    public BlockStore(String name) {
+        this.dir = new File(System.getProperty("user.dir") + "/" + CONFIG.databaseDir() + "/", name);
+        this.segmentSize = CONFIG.blocksSegmentSize();
+        try {
+            boolean memory = "memory".equalsIgnoreCase(CONFIG.databaseEngine());
+            if (CONFIG.databaseReset() || memory)
+                FileUtils.deleteDirectory(dir);
+            dir.mkdirs();
+
+            this.hashIndex = memory ? new MemoryStore() : new LevelDbStore(new File(dir, "hashes"));
+            open();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException("Can't initialize block store: " + dir);
+        }
+    }
+
+    BlockStore(File dir, KeyValueStore hashIndex, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.hashIndex = hashIndex;
+        dir.mkdirs();
+        open();
+    }
+
+    private void open() throws IOException {
+        header = map(new File(dir, "blocks.idx"), 0, HEADER_SIZE);
+        if (header.getInt(0) == MAGIC) {
+            if (header.getInt(4) != VERSION)
+                throw new IOException("Unsupported block store version: " + header.getInt(4));
+            count = header.getLong(8);
+            segment = header.getInt(16);
+            position = header.getInt(20);
+            if (count > 0) {
+                stateRoot = new byte[32];
+                ((ByteBuffer) header.duplicate().position(STATE_ROOT_OFFSET)).get(stateRoot);
+            }
+        }
+        // the blocks of the count refer to all the segments up to the last one
+        for (int i = 0; i <= segment && count > 0; ++i) {
+            File file = segmentFile(i);
+            if (!file.exists())
+                throw new IOException("Missing block segment: " + file);
+            segments.add(map(file, 0, file.length()));
+        }
+        if (count > 0 && position > segments.get(segment).capacity())
+            throw new IOException("Block segment is cut: " + segmentFile(segment));
+        flushedSegment = segment;
+        flushedCount = count;
+        logger.debug("Block store opened: {} blocks [ {} ]", dir, count);
+    }
+
+    /**
+     * Saves the block, a saved number is replaced and the blocks
+     * after it are dropped
+     *
+     * @param number - at most the number of the saved blocks
+     * @param totalDifficulty - the difficulty of the chain up to the block
+     */
+    public synchronized void put(long number, byte[] hash, byte[] encoded, BigInteger totalDifficulty) {
+        if (number < 0 || number > count)
+            throw new IllegalArgumentException("Block " + number + " doesn't follow " + (count - 1));
+
+        // the hashes of the replaced blocks are deleted
+        for (long n = number; n < count; ++n)
+            pendingHashes.put(new ByteArrayWrapper(getHash(n)), null);
+        Iterator<Long> replaced = pendingEntries.keySet().iterator();
+        while (replaced.hasNext())
+            if (replaced.next() > number)
+                replaced.remove();
+
+        ByteBuffer data = segmentFor(encoded.length);
+        data.position(position);
+        data.put(encoded);
+
+        // the flushed entry is kept until the flush, it is consistent with the flushed header
+        ByteBuffer entry;
+        if (number < flushedCount) {
+            byte[] pending = new byte[ENTRY_SIZE];
+            pendingEntries.put(number, pending);
+            entry = ByteBuffer.wrap(pending);
+        } else {
+            entry = entry(number);
+        }
+        entry.put(hash, 0, 32);
+        entry.putInt(segment);
+        entry.putInt(position);
+        entry.putInt(encoded.length);
+        entry.put(ByteUtil.bigIntegerToBytes(totalDifficulty, DIFFICULTY_SIZE));
+
+        position += encoded.length;
+        count = number + 1;
+        pendingHashes.put(new ByteArrayWrapper(hash), ByteUtil.longToBytes(number));
+    }
+
+    /**
+     * @return the encoded block, a read-only view of the mapped file,
+     * 		or null if the block is not saved
+     */
+    public synchronized ByteBuffer getEncoded(long number) {
+        if (number < 0 || number >= count) return null;
+
+        ByteBuffer entry = savedEntry(number);
+        entry.position(entry.position() + 32);
+        int seg = entry.getInt();
+        int offset = entry.getInt();
+        int length = entry.getInt();
+
+        ByteBuffer data = segments.get(seg).duplicate();
+        data.position(offset);
+        data.limit(offset + length);
+        return data.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a copy of the encoded block or null if the block is not saved
+     */
+    public byte[] get(long number) {
+        ByteBuffer data = getEncoded(number);
+        if (data == null) return null;
+
+        byte[] encoded = new byte[data.remaining()];
+        data.get(encoded);
+        return encoded;
+    }
+
+    public synchronized byte[] getHash(long number) {
+        if (number < 0 || number >= count) return null;
+
+        byte[] hash = new byte[32];
+        savedEntry(number).get(hash);
+        return hash;
+    }
+
+    /**
+     * @return the number of the block or -1 if the block is not saved
+     */
+    public synchronized long getNumber(byte[] hash) {
+        ByteArrayWrapper key = new ByteArrayWrapper(hash);
+        byte[] number = pendingHashes.get(key);
+        if (number == null && !pendingHashes.containsKey(key))
+            number = hashIndex.get(hash);
+        if (number == null) return -1;
+
+        // the number may be taken by another block since
+        long blockNumber = ByteBuffer.wrap(number).getLong();
+        return Arrays.equals(hash, getHash(blockNumber)) ? blockNumber : -1;
+    }
+
+    /**
+     * @return the number of the saved blocks, the next number
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the total difficulty saved with the block,
+     * 		zero if the block is not saved
+     */
+    public synchronized BigInteger getTotalDifficulty(long number) {
+        if (number < 0 || number >= count) return BigInteger.ZERO;
+
+        ByteBuffer entry = savedEntry(number);
+        entry.position(entry.position() + ENTRY_SIZE - DIFFICULTY_SIZE);
+        byte[] difficulty = new byte[DIFFICULTY_SIZE];
+        entry.get(difficulty);
+        return new BigInteger(1, difficulty);
+    }
+
+    /**
+     * Sets the state of the head, it is saved by the next flush
+     * together with the blocks
+     */
+    public synchronized void setHead(byte[] stateRoot) {
+        this.stateRoot = stateRoot;
+    }
+
+    /**
+     * @return the state root of the head, null if no block is saved
+     */
+    public synchronized byte[] getStateRoot() {
+        return stateRoot;
+    }
+
+    /**
+     * @return the total difficulty of the last saved block
+     */
+    public synchronized BigInteger getTotalDifficulty() {
+        return getTotalDifficulty(count - 1);
+    }
+
+    /**
+     * Writes the blocks saved since the last flush
+     */
+    public synchronized void flush() {
+        for (int i = flushedSegment; i < segments.size(); ++i)
+            segments.get(i).force();
+        for (Map.Entry<Long, byte[]> pending : pendingEntries.entrySet())
+            entry(pending.getKey()).put(pending.getValue());
+        pendingEntries.clear();
+        for (MappedByteBuffer region : index)
+            region.force();
+        hashIndex.write(pendingHashes);
+        pendingHashes.clear();
+
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(8, count);
+        header.putInt(16, segment);
+        header.putInt(20, position);
+        if (stateRoot != null)
+            ((ByteBuffer) header.duplicate().position(STATE_ROOT_OFFSET)).put(stateRoot, 0, 32);
+        header.force();
+        flushedSegment = segment;
+        flushedCount = count;
+    }
+
+    public synchronized void close() {
+        flush();
+        hashIndex.close();
+        // the mappings are released by the gc
+        index.clear();
+        segments.clear();
+    }
+
+    /* the segment where the data of the length fits */
+    private ByteBuffer segmentFor(int length) {
+        if (segments.isEmpty() || position + length > segments.get(segment).capacity()) {
+            if (!segments.isEmpty()) {
+                ++segment;
+                position = 0;
+            }
+            try {
+                segments.add(map(segmentFile(segment), 0, Math.max(segmentSize, length)));
+            } catch (IOException e) {
+                throw new RuntimeException("Can't create block segment " + segment, e);
+            }
+        }
+        return segments.get(segment).duplicate();
+    }
+
+    /* the entry of the saved block, the replaced one if it is not flushed yet */
+    private ByteBuffer savedEntry(long number) {
+        byte[] pending = pendingEntries.get(number);
+        return pending != null ? ByteBuffer.wrap(pending) : entry(number);
+    }
+
+    /* the buffer positioned at the index entry of the number */
+    private ByteBuffer entry(long number) {
+        int region = (int) (number / REGION_ENTRIES);
+        while (index.size() <= region) {
+            long offset = HEADER_SIZE + (long) index.size() * REGION_ENTRIES * ENTRY_SIZE;
+            try {
+                index.add(map(new File(dir, "blocks.idx"), offset, REGION_ENTRIES * ENTRY_SIZE));
+            } catch (IOException e) {
+                throw new RuntimeException("Can't map the block index", e);
+            }
+        }
+        ByteBuffer entry = index.get(region).duplicate();
+        entry.position((int) (number % REGION_ENTRIES) * ENTRY_SIZE);
+        return entry;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(dir, String.format("blocks-%05d.seg", segment));
+    }
+
+    /* the mapping stays valid after the file is closed */
+    private static MappedByteBuffer map(File file, long offset, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, offset, size);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package org.ethereum.db;
 
-import java.util.ArrayList;
+import static org.ethereum.config.SystemProperties.CONFIG;
+
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.trie.Trie;
+import org.ethereum.trie.TrieBuilder;
+import org.ethereum.util.ByteUtil;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPElement;
 import org.ethereum.util.RLPItem;
@@ -14,6 +19,14 @@ import org.ethereum.util.RLPList;
 import org.ethereum.vm.DataWord;
 
 /**
+ * The details are saved as [ storageRoot, codeHash ], the storage
+ * trie nodes and the code are kept in the storage db by their hash,
+ * so loading the details doesn't read the storage and a changed
+ * row writes only the nodes on its path.
+ *
+ * The details saved in the former format [ keys, values, code ]
+ * are still loaded, they are converted on the next save.
+ *
  * www.ethereumJ.com
  *
  * @author: Roman Mandeleil
@@ -23,43 +36,58 @@ public class ContractDetails {
 
     private byte[] rlpEncoded;
 
-    private List<DataWord> storageKeys   = new ArrayList<>();
-    private List<DataWord> storageValues = new ArrayList<>();
+    /* the storage trie nodes and the code, null keeps them in memory */
+    private KeyValueStore db;
+
+    /* the storage rows read or written through this instance */
+    private Map<DataWord, DataWord> storage = new HashMap<>();
 
     private byte[] code;
+    private byte[] codeHash;
+    private boolean codeDirty;
 
-    private Trie storageTrie = new Trie(null);
+    private Trie storageTrie;
 
     public ContractDetails() {
+        this((KeyValueStore) null);
+    }
+
+    public ContractDetails(KeyValueStore db) {
+        this.db = db;
+        this.storageTrie = newStorageTrie(db, ByteUtil.EMPTY_BYTE_ARRAY);
     }
-	
+
     public ContractDetails(byte[] rlpCode) {
+        this((KeyValueStore) null, rlpCode);
+    }
+
+    public ContractDetails(KeyValueStore db, byte[] rlpCode) {
+        this.db = db;
         decode(rlpCode);
     }
 
+	/**
+	 * @param storage - the rows, the trie is kept in memory
+	 * @param code - the code or null
+	 */
 	public ContractDetails(Map<DataWord, DataWord> storage, byte[] code) {
+		this((KeyValueStore) null);
+		for (Map.Entry<DataWord, DataWord> row : storage.entrySet())
+			put(row.getKey(), row.getValue());
+		if (code != null)
+			setCode(code);
 	}
 
 	public void put(DataWord key, DataWord value) {
 
         if (value.equals(DataWord.ZERO)) {
 
+            storage.remove(key);
             storageTrie.delete(key.getData());
-            int index = storageKeys.indexOf(key);
-            if (index != -1) {
-                storageKeys.remove(index);
-                storageValues.remove(index);
-            }
         } else {
 
             storageTrie.update(key.getData(), RLP.encodeElement(value.getNoLeadZeroesData()));
-            int index = storageKeys.indexOf(key);
-            if (index != -1) {
-                storageKeys.remove(index);
-                storageValues.remove(index);
-            }
-            storageKeys.add(key);
-            storageValues.add(value);
+            storage.put(key.clone(), value.clone());
         }
 
         this.rlpEncoded = null;
@@ -67,103 +95,153 @@ public class ContractDetails {
 
 	public DataWord get(DataWord key) {
 
-		if (storageKeys.size() == 0)
-			return null;
+		DataWord value = storage.get(key);
+		if (value == null) {
+			value = decodeValue(storageTrie.get(key.getData()));
+			if (value != null)
+				storage.put(key.clone(), value);
+		}
+		return value;
+	}
 
-		int foundIndex = storageKeys.indexOf(key);
-		if (foundIndex != -1)
-			return storageValues.get(foundIndex);
-		else
+	private static DataWord decodeValue(byte[] rlpValue) {
+		if (rlpValue == null || rlpValue.length == 0)
 			return null;
+		byte[] data = RLP.decode2(rlpValue).get(0).getRLPData();
+		return new DataWord(data == null ? ByteUtil.EMPTY_BYTE_ARRAY : data);
 	}
 
     public byte[] getCode() {
+        if (code == null && codeHash != null && db != null)
+            code = db.get(codeHash);
         return code;
     }
 
     public void setCode(byte[] code) {
         this.code = code;
+        this.codeHash = code == null ? null : HashUtil.sha3(code);
+        this.codeDirty = true;
         this.rlpEncoded = null;
     }
 
+    /**
+     * @return root of the storage trie, the trie is updated by every put
+     *          so only the changed paths are hashed
+     */
     public byte[] getStorageHash() {
-
-    	storageTrie = new Trie(null);
-        // calc the trie for root hash
-        for (int i = 0; i < storageKeys.size(); ++i){
-			storageTrie.update(storageKeys.get(i).getData(), RLP
-					.encodeElement(storageValues.get(i).getNoLeadZeroesData()));
-        }
         return storageTrie.getRootHash();
     }
 
+    /**
+     * Saves the changed storage trie nodes and the new code
+     * to the storage db, it has to be done before the details
+     * referring to them are saved
+     */
+    public void sync() {
+        if (codeDirty && code != null && db != null)
+            db.put(codeHash, code);
+        codeDirty = false;
+        storageTrie.sync();
+    }
+
+    /**
+     * @return a copy sharing the nodes with these details, the nodes not
+     *          synced yet are kept by both, the changes of one don't reach
+     *          the other
+     */
+    public ContractDetails copy() {
+        ContractDetails details = new ContractDetails(db);
+        for (Map.Entry<DataWord, DataWord> row : storage.entrySet())
+            details.storage.put(row.getKey(), row.getValue().clone());
+        details.code = code;
+        details.codeHash = codeHash;
+        details.codeDirty = codeDirty;
+        details.rlpEncoded = rlpEncoded;
+        details.storageTrie = storageTrie.copy();
+        return details;
+    }
+
+    private static Trie newStorageTrie(KeyValueStore db, byte[] root) {
+        Trie trie = new Trie(db, root);
+        trie.setLazyHash(CONFIG.trieLazyHash());
+        return trie;
+    }
+
 	public void decode(byte[] rlpCode) {
 		RLPList data = RLP.decode2(rlpCode);
 		RLPList rlpList = (RLPList) data.get(0);
 
+		if (rlpList.size() == 2) {
+			byte[] root = ((RLPItem) rlpList.get(0)).getRLPData();
+			this.storageTrie = newStorageTrie(db, root == null ? ByteUtil.EMPTY_BYTE_ARRAY : root);
+			this.codeHash = ((RLPItem) rlpList.get(1)).getRLPData();
+			this.rlpEncoded = rlpCode;
+			return;
+		}
+
+		// the former format, all the rows and the code in one blob
 		RLPList keys = (RLPList) rlpList.get(0);
 		RLPList values = (RLPList) rlpList.get(1);
 		RLPElement code = (RLPElement) rlpList.get(2);
 
-		if (keys.size() > 0) {
-			storageKeys = new ArrayList<>();
-			storageValues = new ArrayList<>();
-		}
-
+		Map<DataWord, DataWord> rows = new TreeMap<>();
 		for (int i = 0; i < keys.size(); ++i) {
-			RLPItem rlpItem = (RLPItem) keys.get(i);
-			storageKeys.add(new DataWord(rlpItem.getRLPData()));
+			DataWord key = new DataWord(((RLPItem) keys.get(i)).getRLPData());
+			DataWord value = new DataWord(((RLPItem) values.get(i)).getRLPData());
+			rows.put(key, value);
 		}
-
-		for (int i = 0; i < values.size(); ++i) {
-			RLPItem rlpItem = (RLPItem) values.get(i);
-			storageValues.add(new DataWord(rlpItem.getRLPData()));
-		}
-
-		for (int i = 0; i < keys.size(); ++i) {
-			DataWord key = storageKeys.get(i);
-			DataWord value = storageValues.get(i);
-            storageTrie.update(key.getData(), RLP.encodeElement(value.getNoLeadZeroesData()));
+		storage.putAll(rows);
+
+		if (db == null) {
+			this.storageTrie = newStorageTrie(db, ByteUtil.EMPTY_BYTE_ARRAY);
+			for (Map.Entry<DataWord, DataWord> row : rows.entrySet())
+	            storageTrie.update(row.getKey().getData(), RLP.encodeElement(row.getValue().getNoLeadZeroesData()));
+		} else {
+			// the sorted rows are written to the db by one pass
+			TrieBuilder builder = new TrieBuilder(db);
+			for (Map.Entry<DataWord, DataWord> row : rows.entrySet())
+				builder.add(row.getKey().getData(), RLP.encodeElement(row.getValue().getNoLeadZeroesData()));
+			this.storageTrie = newStorageTrie(db, builder.build());
 		}
 
-		this.code = code.getRLPData();
-		this.rlpEncoded = rlpCode;
+		if (code.getRLPData() != null)
+			setCode(code.getRLPData());
+		this.rlpEncoded = null;
 	}
 
 	public byte[] getEncoded() {
 
 		if (rlpEncoded == null) {
 
-			int size = storageKeys == null ? 0 : storageKeys.size();
-
-			byte[][] keys = new byte[size][];
-			byte[][] values = new byte[size][];
-
-			for (int i = 0; i < size; ++i) {
-				DataWord key = storageKeys.get(i);
-				keys[i] = RLP.encodeElement(key.getData());
-			}
-			for (int i = 0; i < size; ++i) {
-				DataWord value = storageValues.get(i);
-				values[i] = RLP.encodeElement(value.getNoLeadZeroesData());
-			}
-
-			byte[] rlpKeysList = RLP.encodeList(keys);
-			byte[] rlpValuesList = RLP.encodeList(values);
-			byte[] rlpCode = RLP.encodeElement(code);
-
-			this.rlpEncoded = RLP.encodeList(rlpKeysList, rlpValuesList, rlpCode);
+			this.rlpEncoded = encode(getStorageHash(), codeHash);
 		}
 		return rlpEncoded;
 	}
 
+	/**
+	 * @param storageRoot - root of the storage trie saved in the storage db
+	 * @param codeHash - hash of the code saved in the storage db, null for no code
+	 * @return the details in the [ storageRoot, codeHash ] format
+	 */
+	public static byte[] encode(byte[] storageRoot, byte[] codeHash) {
+		byte[] rlpStorageRoot = RLP.encodeElement(storageRoot);
+		byte[] rlpCodeHash = RLP.encodeElement(codeHash);
+
+		return RLP.encodeList(rlpStorageRoot, rlpCodeHash);
+	}
+
+    /**
+     * @return all the rows of the storage in the order of the keys
+     */
     public Map<DataWord, DataWord> getStorage() {
-        Map<DataWord, DataWord> storage = new HashMap<>();
-		for (int i = 0; storageKeys != null && i < storageKeys.size(); ++i) {
-			storage.put(storageKeys.get(i), storageValues.get(i));
-		}
-        return Collections.unmodifiableMap(storage);
+        final Map<DataWord, DataWord> rows = new LinkedHashMap<>();
+        storageTrie.scanValues(new Trie.ValueAction() {
+            @Override
+            public void doOnValue(byte[] key, byte[] value) {
+                rows.put(new DataWord(key), decodeValue(value));
+            }
+        });
+        return Collections.unmodifiableMap(rows);
     }
 
 }
-
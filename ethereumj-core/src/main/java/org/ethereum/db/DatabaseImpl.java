@@ -1,18 +1,14 @@
 package org.ethereum.db;
 
-import static org.iq80.leveldb.impl.Iq80DBFactory.factory;
-
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.ethereum.config.SystemProperties;
-import org.iq80.leveldb.CompressionType;
-import org.iq80.leveldb.DB;
-import org.iq80.leveldb.DBIterator;
-import org.iq80.leveldb.Options;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -24,20 +20,32 @@ import org.spongycastle.util.encoders.Hex;
  *  Choice must be made between:
  *  	Pure Java: https://github.com/dain/leveldb
  *  	JNI binding: https://github.com/fusesource/leveldbjni
+ *
+ *  Writes can be grouped by {@link #startBatch()}, in that mode
+ *  the rows are kept in memory (visible for the get) and written
+ *  atomically by a single LevelDB WriteBatch on {@link #commitBatch()}
+ *
+ *  The rows are kept by the {@link KeyValueStore} engine of [database.engine]
  */
 public class DatabaseImpl implements Database {
 	
 	private static Logger logger = LoggerFactory.getLogger("db");
-	private DB db;
+	private KeyValueStore db;
 	private String name;
+
+	/* pending rows of the current batch, null value marks a delete */
+	private Map<ByteArrayWrapper, byte[]> batch;
     
 	public DatabaseImpl(String name) {
     	// Initialize Database
         this.name = name;
-		Options options = new Options();
-		options.createIfMissing(true);
-		options.compressionType(CompressionType.NONE);
 		try {
+			if ("memory".equalsIgnoreCase(SystemProperties.CONFIG.databaseEngine())) {
+				logger.debug("Initializing new memory DB: '" + name + "'");
+				db = new MemoryStore();
+				return;
+			}
+
 			logger.debug("Opening database");
             File dbLocation = new File(System.getProperty("user.dir") + "/" +
                                        SystemProperties.CONFIG.databaseDir() + "/");
@@ -48,7 +56,7 @@ public class DatabaseImpl implements Database {
 			}
 
 			logger.debug("Initializing new or existing DB: '" + name + "'");
-			db = factory.open(fileLocation, options);
+			db = new LevelDbStore(fileLocation);
 //			logger.debug("Showing database stats");
 //			String stats = DATABASE.getProperty("leveldb.stats");
 //			logger.debug(stats);
@@ -56,17 +64,13 @@ public class DatabaseImpl implements Database {
             if (logger.isTraceEnabled()){
 
                 logger.trace("dump for: {}", fileLocation.toString());
-                DBIterator iter =  db.iterator();
+                KeyValueStore.RowIterator iter = db.iterator();
 
                 while(iter.hasNext()){
-                    byte[] key   = iter.peekNext().getKey();
-                    byte[] value = iter.peekNext().getValue();
-
-                    logger.trace("key={}, value={}", Hex.toHexString(key), Hex.toHexString(value));
-                    iter.next();
+                    Map.Entry<byte[], byte[]> row = iter.next();
+                    logger.trace("key={}, value={}", Hex.toHexString(row.getKey()), Hex.toHexString(row.getValue()));
                 }
-
-
+                iter.close();
             }
 
 		} catch (IOException ioe) {
@@ -77,9 +81,8 @@ public class DatabaseImpl implements Database {
 	
 	public void destroyDB(File fileLocation) {
 		logger.debug("Destroying existing DB");
-		Options options = new Options();
 		try {
-			factory.destroy(fileLocation, options);
+			LevelDbStore.destroy(fileLocation);
 		} catch (IOException e) {
 			logger.error(e.getMessage(), e);
 		}
@@ -87,44 +90,86 @@ public class DatabaseImpl implements Database {
 	
 	/** Get object (key) -> value */
 	public byte[] get(byte[] key) {
+		if (batch != null) {
+			ByteArrayWrapper wKey = new ByteArrayWrapper(key);
+			if (batch.containsKey(wKey)) return batch.get(wKey);
+		}
 		return db.get(key);
 	}
 	
 	/** Insert object(value) (key = sha3(value)) */
 	public void put(byte[] key, byte[] value) {
+		if (batch != null) {
+			batch.put(new ByteArrayWrapper(key), value);
+			return;
+		}
 		db.put(key, value);
 	}
 	
 	/** Delete object (key) from db **/
 	public void delete(byte[] key) {
+		if (batch != null) {
+			batch.put(new ByteArrayWrapper(key), null);
+			return;
+		}
 		db.delete(key);
 	}
+
+	/** Keep the following writes in memory until commitBatch() */
+	public void startBatch() {
+		if (batch == null)
+			batch = new HashMap<>();
+	}
+
+	/** Write all the pending rows at once and continue batching */
+	public void commitBatch() {
+		if (batch == null || batch.isEmpty()) return;
+
+		db.write(batch);
+		if (logger.isDebugEnabled())
+			logger.debug("Batch of [ {} ] rows written to: {}", batch.size(), name);
+		batch.clear();
+	}
+
+	public boolean isBatching() {
+		return batch != null;
+	}
 	
-	public DBIterator iterator() {
+	/**
+	 * @return the rows written to the engine, the iterator has to be closed
+	 */
+	public KeyValueStore.RowIterator iterator() {
 		return db.iterator();
 	}
 	
-	public DB getDb() {
+	public KeyValueStore getDb() {
 		return this.db;
 	}
 
     @Override
     public void close() {
-        try {
-            logger.info("Release DB: {}", name);
-            db.close();
-        } catch (IOException e) {
-            logger.error("failed to find the db file on the close: {} ", name);
-        }
+        commitBatch();
+        batch = null;
+        logger.info("Release DB: {}", name);
+        db.close();
     }
 
 	public List<ByteArrayWrapper> dumpKeys() {
-		DBIterator iterator = getDb().iterator();
+		KeyValueStore.RowIterator iterator = getDb().iterator();
 		ArrayList<ByteArrayWrapper> keys = new ArrayList<ByteArrayWrapper>();
 
-		while (iterator.hasNext()) {
-			ByteArrayWrapper key = new ByteArrayWrapper(iterator.next().getKey());
-			keys.add(key);
+		try {
+			while (iterator.hasNext()) {
+				ByteArrayWrapper key = new ByteArrayWrapper(iterator.next().getKey());
+				if (batch == null || !batch.containsKey(key))
+					keys.add(key);
+			}
+		} finally {
+			iterator.close();
+		}
+		if (batch != null) {
+			for (Map.Entry<ByteArrayWrapper, byte[]> row : batch.entrySet())
+				if (row.getValue() != null) keys.add(row.getKey());
 		}
 		Collections.sort((List<ByteArrayWrapper>) keys);
 		return keys;
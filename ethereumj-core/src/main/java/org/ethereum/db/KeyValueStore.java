@@ -0,0 +1,42 @@
+package org.ethereum.db;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The storage engine behind the databases, the trie nodes, the details
+ * and the blocks are kept by one of the engines [database.engine]:
+ *
+ * 	- leveldb: {@link LevelDbStore}, tuned by the [database.leveldb.*] options
+ * 	- memory:  {@link MemoryStore}, nothing is saved to the disk
+ *
+ * The keys are ordered by their unsigned bytes.
+ */
+public interface KeyValueStore extends Database {
+
+    /**
+     * Writes the rows of the batch atomically,
+     * the null value deletes the key
+     */
+    public void write(Map<ByteArrayWrapper, byte[]> batch);
+
+    /**
+     * @return the rows in the order of the keys, the iterator has to be closed
+     */
+    public RowIterator iterator();
+
+    /**
+     * @return read-only view of the rows written so far, it has to be closed
+     */
+    public Snapshot getSnapshot();
+
+    public interface RowIterator extends Iterator<Map.Entry<byte[], byte[]>> {
+        public void close();
+    }
+
+    public interface Snapshot {
+        public byte[] get(byte[] key);
+        public RowIterator iterator();
+        public void close();
+    }
+}
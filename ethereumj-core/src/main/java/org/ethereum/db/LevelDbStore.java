@@ -0,0 +1,154 @@
+package org.ethereum.db;
+
+import static org.ethereum.config.SystemProperties.CONFIG;
+import static org.iq80.leveldb.impl.Iq80DBFactory.factory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.WriteBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The LevelDB engine, the options are read from the config:
+ *
+ * 	database.leveldb.cache.size        - bytes of the block cache
+ * 	database.leveldb.block.size        - bytes of the data block
+ * 	database.leveldb.write.buffer.size - bytes written to the log before the table is built
+ * 	database.leveldb.max.open.files
+ * 	database.leveldb.compression       - none / snappy
+ */
+public class LevelDbStore implements KeyValueStore {
+
+    private static Logger logger = LoggerFactory.getLogger("db");
+
+    private final DB db;
+
+    public LevelDbStore(File location) throws IOException {
+        this(location, options());
+    }
+
+    public LevelDbStore(File location, Options options) throws IOException {
+        this.db = factory.open(location, options);
+    }
+
+    public static Options options() {
+        Options options = new Options();
+        options.createIfMissing(true);
+        options.cacheSize(CONFIG.levelDbCacheSize());
+        options.blockSize(CONFIG.levelDbBlockSize());
+        options.writeBufferSize(CONFIG.levelDbWriteBufferSize());
+        options.maxOpenFiles(CONFIG.levelDbMaxOpenFiles());
+        options.compressionType("snappy".equalsIgnoreCase(CONFIG.levelDbCompression()) ?
+                CompressionType.SNAPPY : CompressionType.NONE);
+        return options;
+    }
+
+    public static void destroy(File location) throws IOException {
+        factory.destroy(location, new Options());
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        return db.get(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        db.put(key, value);
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        db.delete(key);
+    }
+
+    @Override
+    public void write(Map<ByteArrayWrapper, byte[]> batch) {
+        WriteBatch writeBatch = db.createWriteBatch();
+        try {
+            for (Map.Entry<ByteArrayWrapper, byte[]> row : batch.entrySet()) {
+                if (row.getValue() == null)
+                    writeBatch.delete(row.getKey().getData());
+                else
+                    writeBatch.put(row.getKey().getData(), row.getValue());
+            }
+            db.write(writeBatch);
+        } finally {
+            close(writeBatch);
+        }
+    }
+
+    @Override
+    public RowIterator iterator() {
+        return iterator(db.iterator());
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        final org.iq80.leveldb.Snapshot snapshot = db.getSnapshot();
+        final ReadOptions options = new ReadOptions().snapshot(snapshot);
+        return new Snapshot() {
+            @Override
+            public byte[] get(byte[] key) {
+                return db.get(key, options);
+            }
+
+            @Override
+            public RowIterator iterator() {
+                return LevelDbStore.iterator(db.iterator(options));
+            }
+
+            @Override
+            public void close() {
+                LevelDbStore.close(snapshot);
+            }
+        };
+    }
+
+    private static RowIterator iterator(final DBIterator iterator) {
+        iterator.seekToFirst();
+        return new RowIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                LevelDbStore.close(iterator);
+            }
+        };
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(db);
+    }
+}
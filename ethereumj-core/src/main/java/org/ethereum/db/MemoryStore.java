@@ -0,0 +1,101 @@
+package org.ethereum.db;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the rows in a sorted map, for the tests and for the nodes
+ * which don't need to keep the data between the runs
+ */
+public class MemoryStore implements KeyValueStore {
+
+    private final ConcurrentSkipListMap<ByteArrayWrapper, byte[]> rows = new ConcurrentSkipListMap<>();
+
+    @Override
+    public byte[] get(byte[] key) {
+        return rows.get(new ByteArrayWrapper(key));
+    }
+
+    @Override
+    public synchronized void put(byte[] key, byte[] value) {
+        rows.put(new ByteArrayWrapper(key), value);
+    }
+
+    @Override
+    public synchronized void delete(byte[] key) {
+        rows.remove(new ByteArrayWrapper(key));
+    }
+
+    /* the snapshot copies the rows, no batch is seen half written */
+    @Override
+    public synchronized void write(Map<ByteArrayWrapper, byte[]> batch) {
+        for (Map.Entry<ByteArrayWrapper, byte[]> row : batch.entrySet()) {
+            if (row.getValue() == null)
+                rows.remove(row.getKey());
+            else
+                rows.put(row.getKey(), row.getValue());
+        }
+    }
+
+    @Override
+    public RowIterator iterator() {
+        return iterator(rows);
+    }
+
+    @Override
+    public synchronized Snapshot getSnapshot() {
+        final NavigableMap<ByteArrayWrapper, byte[]> copy = new TreeMap<>(rows);
+        return new Snapshot() {
+            @Override
+            public byte[] get(byte[] key) {
+                return copy.get(new ByteArrayWrapper(key));
+            }
+
+            @Override
+            public RowIterator iterator() {
+                return MemoryStore.iterator(copy);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static RowIterator iterator(NavigableMap<ByteArrayWrapper, byte[]> map) {
+        final Iterator<Map.Entry<ByteArrayWrapper, byte[]>> iterator = map.entrySet().iterator();
+        return new RowIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                Map.Entry<ByteArrayWrapper, byte[]> row = iterator.next();
+                return new AbstractMap.SimpleImmutableEntry<>(row.getKey().getData(), row.getValue());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -13,9 +13,9 @@ import org.ethereum.listener.EthereumListener;
 import org.ethereum.manager.WorldManager;
 import org.ethereum.trie.TrackTrie;
 import org.ethereum.trie.Trie;
+import org.ethereum.util.ByteArrayMap;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.vm.DataWord;
-import org.iq80.leveldb.DBIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -27,8 +27,15 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.ethereum.config.SystemProperties.CONFIG;
 
@@ -46,6 +53,7 @@ import static org.ethereum.config.SystemProperties.CONFIG;
              -->  ContractDetails  ---> leveldb(details) /key=address
                  --> code      ---> sha3(code) // saved into AccountInfo.codeHash
                  --> storage   ---> Trie // to calculate the AccountInfo.stateRoot
+                                        ---> leveldb(storage) /key=sha3(node), sha3(code)
  ***********************************************************************************
  *
  * www.ethereumJ.com
@@ -62,11 +70,28 @@ public class RepositoryImpl implements Repository {
     private TrackDatabase 	contractDetailsDB;
 
     // TODO: Listeners listeners
-    // TODO: cash impl
 
-    private DatabaseImpl chainDB 	= null;
+    /* decoded accounts, the dirty ones are written to the state on flushAccounts() */
+    private Map<byte[], AccountState> accounts = new ByteArrayMap<>();
+    private Set<byte[]> dirtyAccounts = Collections.newSetFromMap(new ByteArrayMap<Boolean>());
+    /* the changed details keep their storage nodes and code in memory, the track
+     * passes them to its parent on commit, they are saved on flush() */
+    private Map<byte[], ContractDetails> dirtyDetails = new ByteArrayMap<>();
+    /* copies of the changed details at startTracking(), restored by the rollback */
+    private Map<byte[], ContractDetails> trackedDetails;
+    /* the repository of the track, its cache is outdated by the commit */
+    private RepositoryImpl parent;
+
+    private BlockStore   blockStore	= null;
     private DatabaseImpl detailsDB 	= null;
     private DatabaseImpl stateDB 	= null;
+    private DatabaseImpl storageDB 	= null;
+    /* storage trie nodes and code, shared with the tracks */
+    private KeyValueStore	contractStorageDB;
+    private StatePruner statePruner = null;
+
+    // blocks saved since the last write to the db
+    private int pendingBlocks = 0;
     
     /**
      * Create a new Repository DAO 
@@ -75,69 +100,159 @@ public class RepositoryImpl implements Repository {
      * @See loadBlockchain() to update the stateRoot
      */
     public RepositoryImpl() {
-    	this("blockchain", "details", "state");
+    	this("blockchain", "details", "state", "storage");
     }
     
-    public RepositoryImpl(String blockChainDbName, String detailsDbName, String stateDbName) {
-    	chainDB 			= new DatabaseImpl(blockChainDbName);
+    public RepositoryImpl(String blockChainDbName, String detailsDbName, String stateDbName, String storageDbName) {
+    	blockStore 			= new BlockStore(blockChainDbName);
         detailsDB     		= new DatabaseImpl(detailsDbName);
         contractDetailsDB 	= new TrackDatabase(detailsDB);
+        storageDB 			= new DatabaseImpl(storageDbName);
+        contractStorageDB 	= storageDB.getDb();
         stateDB 			= new DatabaseImpl(stateDbName);
         worldState 			= new Trie(stateDB.getDb());
+        worldState.setLazyHash(CONFIG.trieLazyHash());
+        if (CONFIG.statePruneKeep() > 0)
+            statePruner     = new StatePruner(stateDB.getDb(), contractStorageDB,
+                                        CONFIG.statePruneKeep(), CONFIG.statePruneInterval());
         accountStateDB 		= new TrackTrie(worldState);
+
+        detailsDB.startBatch();
     }
 
-    private RepositoryImpl(TrackTrie accountStateDB, TrackDatabase contractDetailsDB) {
+    private RepositoryImpl(TrackTrie accountStateDB, TrackDatabase contractDetailsDB, KeyValueStore contractStorageDB) {
         this.accountStateDB = accountStateDB;
         this.contractDetailsDB = contractDetailsDB;
+        this.contractStorageDB = contractStorageDB;
     }
 
     public RepositoryImpl getTrack() {
+        // the track reads the accounts through the state
+        flushAccounts();
         TrackTrie     trackState   = new TrackTrie(accountStateDB);
         TrackDatabase trackDetails = new TrackDatabase(contractDetailsDB);
-        return new RepositoryImpl (trackState, trackDetails);
+        RepositoryImpl track = new RepositoryImpl (trackState, trackDetails, contractStorageDB);
+        track.parent = this;
+        return track;
     }
 
     public void startTracking() {
         logger.debug("start tracking");
+        // the rollback drops only the changes made since now
+        flushAccounts();
+        trackedDetails = null;
+        if (!dirtyDetails.isEmpty()) {
+            trackedDetails = new ByteArrayMap<>();
+            for (Map.Entry<byte[], ContractDetails> entry : dirtyDetails.entrySet())
+                trackedDetails.put(entry.getKey(), entry.getValue().copy());
+        }
         accountStateDB.startTrack();
         contractDetailsDB.startTrack();
     }
 
     public void commit() {
         logger.debug("commit changes");
+        flushAccounts();
+        // the changes of the track are written over the parent's ones
+        if (parent != null)
+            parent.flushAccounts();
         accountStateDB.commitTrack();
         contractDetailsDB.commitTrack();
+        trackedDetails = null;
+        if (parent != null) {
+            parent.accounts.clear();
+            parent.dirtyDetails.putAll(dirtyDetails);
+            dirtyDetails.clear();
+        }
     }
 
     public void rollback() {
         logger.debug("rollback changes");
+        accounts.clear();
+        dirtyAccounts.clear();
+        dirtyDetails.clear();
+        if (trackedDetails != null)
+            dirtyDetails.putAll(trackedDetails);
+        trackedDetails = null;
         accountStateDB.rollbackTrack();
         contractDetailsDB.rollbackTrack();
     }
     
     public Block getBlock(long blockNr) {
-    	return new Block(chainDB.get(ByteUtil.longToBytes(blockNr)));
+    	byte[] encoded = blockStore.get(blockNr);
+    	return encoded == null ? null : new Block(encoded);
+    }
+
+    public long getBlockCount() {
+        return blockStore.getCount();
+    }
+
+    /**
+     * @return sum of the difficulties of the saved blocks
+     */
+    public BigInteger getTotalDifficulty() {
+        return blockStore.getTotalDifficulty();
     }
     
     public void saveBlock(Block block) {
-    	this.chainDB.put(ByteUtil.longToBytes(block.getNumber()), block.getEncoded());
+        // the block may replace a saved one, the difficulty adds to its parent
+        BigInteger totalDifficulty = blockStore.getTotalDifficulty(block.getNumber() - 1)
+                .add(new BigInteger(1, block.getDifficulty()));
+    	this.blockStore.put(block.getNumber(), block.getHash(), block.getEncoded(), totalDifficulty);
+        this.blockStore.setHead(block.getStateRoot());
+
+        // the accounts are cached for one block
+        flushAccounts();
+        accounts.clear();
 
 //        this.worldState.cleanCacheGarbage();
-    	this.worldState.sync();
+        if (++pendingBlocks >= CONFIG.databaseBatchBlocks())
+            flush();
+    }
+
+    /**
+     * Writes the pending state, contract details and blocks,
+     * each database gets a single atomic batch. The blocks
+     * are written last so after a crash the chain never
+     * points to a state root which was not saved.
+     */
+    public void flush() {
+        long startTime = System.currentTimeMillis();
+
+        flushAccounts();
+        if (statePruner != null) {
+            // the storage nodes are written under the pruning, like the state nodes
+            this.statePruner.sync(worldState, new Runnable() {
+                @Override
+                public void run() {
+                    syncDetails();
+                }
+            });
+        } else {
+            syncDetails();
+            this.worldState.sync();
+        }
+        this.detailsDB.commitBatch();
+        this.blockStore.flush();
+
+        if (logger.isDebugEnabled())
+            logger.debug("Flushed [ {} ] blocks to the db: [ {}ms ]",
+                    pendingBlocks, System.currentTimeMillis() - startTime);
+        pendingBlocks = 0;
     }
 	
 	public BlockchainImpl loadBlockchain() {
 		BlockchainImpl blockchain = WorldManager.getInstance().getBlockchain();
-		DBIterator iterator = chainDB.iterator();
-		try {
-			if (!iterator.hasNext()) {
+		long count = blockStore.getCount();
+		if (count == 0) {
                 logger.info("DB is empty - adding Genesis");
                 for (String address : Genesis.getPremine()) {
             		this.createAccount(Hex.decode(address));
             		this.addBalance   (Hex.decode(address), Genesis.getPremineAmount());
 				}
                 blockchain.storeBlock(Genesis.getInstance());
+                // the premine is saved before the state is moved to the head root below
+                flush();
 
                 EthereumListener listener =  WorldManager.getInstance().getListener();
                 if (listener != null){
@@ -146,33 +261,26 @@ public class RepositoryImpl implements Repository {
 
                	logger.debug("Block #{} -> {}", Genesis.NUMBER, blockchain.getLastBlock().toFlatString());
                	dumpState(Genesis.getInstance(), 0, 0, null);
-            } else {
-            	logger.debug("Displaying blocks stored in DB sorted on blocknumber");
-
-            	for (iterator.seekToFirst(); iterator.hasNext();) {
-            		Block block = new Block(iterator.next().getValue());
-            		blockchain.getBlockCache().put(block.getNumber(), block.getHash());
-            		blockchain.setLastBlock(block);
-
-                    EthereumListener listener =  WorldManager.getInstance().getListener();
-                    if (listener != null){
-                        listener.onPreloadedBlock(block);
-                    }
-    	            logger.debug("Block #{} -> {}", block.getNumber(), block.toFlatString());
-            	}
+        } else {
+            	// only the head is read, the hashes of the older blocks come from the index on demand
+            	Block block = getBlock(count - 1);
+            	blockchain.getBlockCache().put(block.getNumber(), block.getHash());
+            	blockchain.setLastBlock(block);
+
+                EthereumListener listener =  WorldManager.getInstance().getListener();
+                if (listener != null){
+                    listener.onPreloadedBlock(block);
+                }
 				logger.info(
-						"*** Loaded up to block [ {} ] with stateRoot [ {} ]",
-                                    blockchain.getLastBlock().getNumber(),
-                                        Hex.toHexString(blockchain.getLastBlock().getStateRoot()));
-            }
-		} finally {
-			// Make sure you close the iterator to avoid resource leaks.
-			try {
-				iterator.close();
-			} catch (IOException e) {
-				logger.error(e.getMessage(), e);
-			}
-		}
+						"*** Loaded up to block [ {} ] with stateRoot [ {} ] total difficulty [ {} ]",
+                                    block.getNumber(),
+                                        Hex.toHexString(blockStore.getStateRoot()),
+                                            blockStore.getTotalDifficulty());
+        }
+
+        // the state is replaced by the root below
+        flushAccounts();
+        accounts.clear();
 
         if (CONFIG.rootHashStart() != null){
 
@@ -183,8 +291,8 @@ public class RepositoryImpl implements Repository {
 
         } else{
 
-            // Update world state to latest loaded block from db
-            this.worldState.setRoot(blockchain.getLastBlock().getStateRoot());
+            // Update world state to the head saved with the blocks
+            this.worldState.setRoot(blockStore.getStateRoot());
         }
 
 		return blockchain;
@@ -198,22 +306,31 @@ public class RepositoryImpl implements Repository {
     	    	
         // 1. Save AccountState
         AccountState state =  new AccountState();
-        accountStateDB.update(addr, state.getEncoded());
+        accounts.put(addr, state);
+        dirtyAccounts.add(addr);
 
         // 2. Save ContractDetails
-        ContractDetails details = new ContractDetails();
+        ContractDetails details = new ContractDetails(contractStorageDB);
         contractDetailsDB.put(addr, details.getEncoded());
+        dirtyDetails.remove(addr);
 
         if (logger.isDebugEnabled())
             logger.debug("New account created: [ {} ]", Hex.toHexString(addr));
 
-        return state;
+        return copy(state);
     }
     
+    /**
+     * @return the world state, the changed accounts are written to it first
+     */
     public Trie getWorldState() {
+        flushAccounts();
     	return worldState;
     }
 
+    /**
+     * @return copy of the account state, changing it doesn't change the repository
+     */
     public AccountState getAccountState(byte[] addr) {
 
         if (logger.isTraceEnabled())
@@ -221,6 +338,16 @@ public class RepositoryImpl implements Repository {
 
     	this.validateAddress(addr);
 
+        AccountState state = loadAccount(addr);
+        return state == null ? null : copy(state);
+    }
+
+    /* the cached account, it is decoded once per block */
+    private AccountState loadAccount(byte[] addr) {
+
+        AccountState state = accounts.get(addr);
+        if (state != null) return state;
+
         byte[] accountStateRLP = accountStateDB.get(addr);
 
         if (logger.isTraceEnabled())
@@ -229,10 +356,30 @@ public class RepositoryImpl implements Repository {
         if (accountStateRLP == null || accountStateRLP.length == 0)
             return null;
 
-        AccountState state =  new AccountState(accountStateRLP);
+        state = new AccountState(accountStateRLP);
+        accounts.put(addr, state);
         return state;
     }
 
+    private void updateAccount(byte[] addr, AccountState state) {
+        accounts.put(addr, state);
+        dirtyAccounts.add(addr);
+    }
+
+    private static AccountState copy(AccountState state) {
+        return new AccountState(state.getEncoded());
+    }
+
+    /**
+     * Writes the changed accounts to the state, it is done
+     * once for all the changes of the account in the block
+     */
+    public void flushAccounts() {
+        for (byte[] key : dirtyAccounts)
+            accountStateDB.update(key, accounts.get(key).getEncoded());
+        dirtyAccounts.clear();
+    }
+
 	public ContractDetails getContractDetails(byte[] addr) {
 
 		this.validateAddress(addr);
@@ -248,39 +395,88 @@ public class RepositoryImpl implements Repository {
         if (logger.isDebugEnabled())
             logger.debug("Contract details RLP: [ {} ]", Hex.toHexString(accountDetailsRLP));
 
-		ContractDetails details = new ContractDetails(accountDetailsRLP);
-		return details;
+        // the changed details are copied, the nodes not synced yet are only in them
+        ContractDetails details = findDirtyDetails(addr, accountDetailsRLP);
+        if (details != null)
+        	return details.copy();
+		return new ContractDetails(contractStorageDB, accountDetailsRLP);
 	}
 
+    /* the details to be read, not changed */
+    private ContractDetails readDetails(byte[] addr) {
+        byte[] rlp = contractDetailsDB.get(addr);
+        if (rlp == null)
+            return null;
+        ContractDetails details = findDirtyDetails(addr, rlp);
+        return details == null ? new ContractDetails(contractStorageDB, rlp) : details;
+    }
+
+    /**
+     * @return the details to be changed by this repository, they are
+     *          saved to the details db by the caller
+     */
+    private ContractDetails loadDetails(byte[] addr) {
+        ContractDetails details = dirtyDetails.get(addr);
+        if (details != null)
+            return details;
+
+        byte[] rlp = contractDetailsDB.get(addr);
+        if (rlp == null)
+            return null;
+        details = findDirtyDetails(addr, rlp);
+        details = details == null ? new ContractDetails(contractStorageDB, rlp) : details.copy();
+        dirtyDetails.put(addr, details);
+        return details;
+    }
+
+    /* the details changed by this repository or its parents, if they are the saved ones */
+    private ContractDetails findDirtyDetails(byte[] addr, byte[] rlp) {
+        for (RepositoryImpl repository = this; repository != null; repository = repository.parent) {
+            ContractDetails details = repository.dirtyDetails.get(addr);
+            if (details != null)
+                return Arrays.equals(details.getEncoded(), rlp) ? details : null;
+        }
+        return null;
+    }
+
+    /* saves the storage nodes and the code of the changed details */
+    private void syncDetails() {
+        for (ContractDetails details : dirtyDetails.values())
+            details.sync();
+        dirtyDetails.clear();
+    }
+
 	public BigInteger addBalance(byte[] addr, BigInteger value) {
 
 		this.validateAddress(addr);
     	
-		AccountState state = getAccountState(addr);
+		AccountState state = loadAccount(addr);
+
+        if (state == null) {
+            createAccount(addr);
+            state = loadAccount(addr);
+        }
 
-        if (state == null)
-            state = createAccount(addr);
-        
 		BigInteger newBalance = state.addToBalance(value);
 
 		if (logger.isDebugEnabled())
 			logger.debug("Changing balance: account: [ {} ] new balance: [ {} ] delta: [ {} ]",
 					Hex.toHexString(addr), newBalance.toString(), value);
 
-		accountStateDB.update(addr, state.getEncoded());
+		updateAccount(addr, state);
 		return newBalance;
 	}
 
     public BigInteger getBalance(byte[] addr) {
     	this.validateAddress(addr);
-        AccountState state = getAccountState(addr);
+        AccountState state = loadAccount(addr);
         if (state == null) return BigInteger.ZERO;
         return state.getBalance();
     }
 
     public BigInteger getNonce(byte[] addr) {
     	this.validateAddress(addr);
-        AccountState state = getAccountState(addr);
+        AccountState state = loadAccount(addr);
         if (state == null) return BigInteger.ZERO;
         return state.getNonce();
     }
@@ -289,7 +485,7 @@ public class RepositoryImpl implements Repository {
 		
     	this.validateAddress(addr);
     	
-        AccountState state = getAccountState(addr);
+        AccountState state = loadAccount(addr);
         if (state == null) return BigInteger.ZERO;
         state.incrementNonce();
 
@@ -297,7 +493,7 @@ public class RepositoryImpl implements Repository {
             logger.debug("Incerement nonce: account: [ {} ] new nonce: [ {} ]",
                     Hex.toHexString(addr), state.getNonce().longValue());
 
-        accountStateDB.update(addr, state.getEncoded());
+        updateAccount(addr, state);
         return state.getNonce();
     }
 
@@ -306,8 +502,8 @@ public class RepositoryImpl implements Repository {
         if (key == null) return;
         this.validateAddress(addr);
 
-        AccountState      state = getAccountState(addr);
-        ContractDetails   details = getContractDetails(addr);
+        AccountState      state = loadAccount(addr);
+        ContractDetails   details = loadDetails(addr);
 
         if (state == null || details == null) return;
         details.put(key, value);
@@ -322,7 +518,7 @@ public class RepositoryImpl implements Repository {
                     Hex.toHexString(value.getNoLeadZeroesData()),
                     Hex.toHexString(storageHash));
 
-        accountStateDB.update(addr, state.getEncoded());
+        updateAccount(addr, state);
         contractDetailsDB.put(addr, details.getEncoded());
     }
 
@@ -331,10 +527,10 @@ public class RepositoryImpl implements Repository {
         if (key == null) return null;
         this.validateAddress(addr);
 
-        AccountState state = getAccountState(addr);
+        AccountState state = loadAccount(addr);
         if (state == null) return null;
 
-        ContractDetails details = getContractDetails(addr);
+        ContractDetails details = readDetails(addr);
         DataWord value = details.get(key);
 
         return value;
@@ -343,11 +539,23 @@ public class RepositoryImpl implements Repository {
     public byte[] getCode(byte[] addr) {
 
     	this.validateAddress(addr);
-        ContractDetails details = getContractDetails(addr);
+        ContractDetails details = readDetails(addr);
         if (details == null) return null;
         return details.getCode();
     }
 
+    /**
+     * @return the hash of the code kept by the account, null if
+     *          the account doesn't exist
+     */
+    public byte[] getCodeHash(byte[] addr) {
+
+    	this.validateAddress(addr);
+        AccountState state = loadAccount(addr);
+        if (state == null) return null;
+        return state.getCodeHash();
+    }
+
     public void saveCode(byte[] addr, byte[] code) {
     	
     	if (code == null) return;
@@ -359,10 +567,10 @@ public class RepositoryImpl implements Repository {
                     Hex.toHexString(code));
 
 
-        AccountState state = getAccountState(addr);
+        AccountState state = loadAccount(addr);
         if (state == null) return;
 
-        ContractDetails details = getContractDetails(addr);
+        ContractDetails details = loadDetails(addr);
         details.setCode(code);
 
         byte[] codeHash = HashUtil.sha3(code);
@@ -374,7 +582,7 @@ public class RepositoryImpl implements Repository {
                     Hex.toHexString(codeHash),
                     Hex.toHexString(code));
 
-        accountStateDB.update(addr, state.getEncoded());
+        updateAccount(addr, state);
         contractDetailsDB.put(addr, details.getEncoded());
 
         if (logger.isDebugEnabled())
@@ -386,10 +594,58 @@ public class RepositoryImpl implements Repository {
     public void delete(byte[] addr) {
 
     	this.validateAddress(addr);
+        accounts.remove(addr);
+        dirtyAccounts.remove(addr);
+        dirtyDetails.remove(addr);
         accountStateDB.delete(addr);
         contractDetailsDB.delete(addr);
     }
 
+    /**
+     * Writes a snapshot of the current state, the pending changes are saved first
+     *
+     * @see StateSnapshot
+     */
+    public long exportState(OutputStream out) throws IOException {
+        flush();
+        return new StateSnapshot(stateDB.getDb(), detailsDB.getDb(), contractStorageDB)
+                .exportState(worldState.getRootHash(), out);
+    }
+
+    /**
+     * Loads the snapshot and moves the world state to its root,
+     * the contract details of the accounts out of the snapshot
+     * are deleted
+     *
+     * @return the state root
+     */
+    public byte[] importState(InputStream in) throws IOException {
+        // the pending rows are written first, they don't overwrite the imported ones later
+        flush();
+        byte[] root = new StateSnapshot(stateDB.getDb(), detailsDB, contractStorageDB)
+                .importState(in);
+        accounts.clear();
+        dirtyAccounts.clear();
+        worldState.setRoot(root);
+        worldState.sync();
+
+        List<byte[]> removed = new ArrayList<>();
+        KeyValueStore.RowIterator iterator = detailsDB.iterator();
+        try {
+            while (iterator.hasNext()) {
+                byte[] address = iterator.next().getKey();
+                if (worldState.get(address).length == 0)
+                    removed.add(address);
+            }
+        } finally {
+            iterator.close();
+        }
+        for (byte[] address : removed)
+            detailsDB.delete(address);
+        detailsDB.commitBatch();
+        return root;
+    }
+
     public List<ByteArrayWrapper> dumpKeys(){
         return stateDB.dumpKeys();
     }
@@ -483,19 +739,32 @@ public class RepositoryImpl implements Repository {
         }
     }
 
-    public DBIterator getAccountsIterator() {
+    public KeyValueStore.RowIterator getAccountsIterator() {
     	return detailsDB.iterator();
     }
 
     public boolean isClosed(){
-        return chainDB == null;
+        return blockStore == null;
     }
 
     public void close() {
 
-        if (this.chainDB != null){
-            chainDB.close();
-            chainDB = null;
+        if (!isClosed())
+            flush();
+
+        if (this.blockStore != null){
+            blockStore.close();
+            blockStore = null;
+        }
+
+        if (this.statePruner != null){
+            statePruner.close();
+            statePruner = null;
+        }
+
+        if (this.storageDB != null){
+            storageDB.close();
+            storageDB = null;
         }
 
         if (this.stateDB != null){
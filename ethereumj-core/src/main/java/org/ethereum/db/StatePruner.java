@@ -0,0 +1,339 @@
+package org.ethereum.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.trie.BranchNode;
+import org.ethereum.trie.ExtensionNode;
+import org.ethereum.trie.HashRef;
+import org.ethereum.trie.LeafNode;
+import org.ethereum.trie.Trie;
+import org.ethereum.trie.TrieNode;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPElement;
+import org.ethereum.util.RLPList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes the trie nodes which are not reachable from the last N state
+ * roots from the state database (mark and sweep) [state.prune.keep]
+ *
+ * The pruning runs in the background every [state.prune.interval] syncs:
+ *
+ * 	- mark: the nodes of the retained roots are collected from a db snapshot,
+ * 	  the storage trie and the code of each account from the storage db
+ * 	- sweep: the rows of the snapshots which were not marked are candidates
+ * 	- the roots synced meanwhile are marked (only their new nodes are read)
+ * 	  and the candidates are deleted by one batch per db, no sync runs in between
+ *
+ * The retained roots are saved in the state db with each sync, so the
+ * pruning after a restart keeps them too. The state of the older roots
+ * is not available after the pruning.
+ */
+public class StatePruner {
+
+	private static Logger logger = LoggerFactory.getLogger("db");
+
+	/* the row of the retained roots in the state db, not a node hash */
+	private static final byte[] ROOTS_KEY = "statePruner.roots".getBytes();
+
+	private final KeyValueStore db;
+	private final KeyValueStore storageDb;
+	private final int keepRoots;
+	private final int interval;
+
+	/* guards the roots and keeps the sync and the sweep apart */
+	private final Object lock = new Object();
+	private final LinkedList<byte[]> roots = new LinkedList<>();
+	/* roots synced since the snapshot of the running pruning */
+	private List<byte[]> syncedRoots;
+	private int syncs;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "StatePruner");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private Future<?> running;
+
+	private final AtomicLong removedNodes = new AtomicLong();
+	private final AtomicLong reclaimedBytes = new AtomicLong();
+
+	/**
+	 * Prunes the state database only
+	 */
+	public StatePruner(KeyValueStore db, int keepRoots, int interval) {
+		this(db, null, keepRoots, interval);
+	}
+
+	/**
+	 * @param db - the state database
+	 * @param storageDb - the storage trie nodes and the code of the accounts,
+	 * 		null if they are not pruned
+	 * @param keepRoots - number of the last state roots to keep
+	 * @param interval - number of the syncs between two prunings
+	 */
+	public StatePruner(KeyValueStore db, KeyValueStore storageDb, int keepRoots, int interval) {
+		this.db = db;
+		this.storageDb = storageDb;
+		this.keepRoots = Math.max(1, keepRoots);
+		this.interval = Math.max(1, interval);
+
+		byte[] saved = db.get(ROOTS_KEY);
+		if (saved != null)
+			for (RLPElement root : (RLPList) RLP.decode2(saved).get(0))
+				roots.add(root.getRLPData());
+		while (roots.size() > this.keepRoots)
+			roots.removeFirst();
+	}
+
+	/**
+	 * Saves the trie to the db and retains its root,
+	 * the pruning never deletes nodes in the middle of the sync
+	 */
+	public void sync(Trie trie) {
+		sync(trie, null);
+	}
+
+	/**
+	 * Runs the writes of the storage db and saves the trie, the nodes
+	 * written are not deleted by the running pruning
+	 *
+	 * @param storageSync - writes the storage tries of the trie, may be null
+	 */
+	public void sync(Trie trie, Runnable storageSync) {
+		synchronized (lock) {
+			if (storageSync != null)
+				storageSync.run();
+			trie.sync();
+			byte[] root = trie.getRootHash();
+			if (root.length == 0 || (!roots.isEmpty() && Arrays.equals(roots.getLast(), root)))
+				return;
+
+			roots.add(root);
+			while (roots.size() > keepRoots)
+				roots.removeFirst();
+			if (syncedRoots != null)
+				syncedRoots.add(root);
+
+			byte[][] encoded = new byte[roots.size()][];
+			for (int i = 0; i < encoded.length; ++i)
+				encoded[i] = RLP.encodeElement(roots.get(i));
+			db.put(ROOTS_KEY, RLP.encodeList(encoded));
+
+			if (++syncs >= interval && (running == null || running.isDone())) {
+				syncs = 0;
+				running = executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							prune();
+						} catch (RuntimeException e) {
+							logger.error("State pruning failed", e);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Runs the mark and sweep on the calling thread
+	 */
+	public void prune() {
+		long startTime = System.currentTimeMillis();
+
+		Marker marker;
+		List<byte[]> markRoots;
+		synchronized (lock) {
+			if (roots.isEmpty()) return;
+			Marker storage = storageDb == null ? null : new Marker(storageDb, null);
+			marker = new Marker(db, storage);
+			markRoots = new ArrayList<>(roots);
+			syncedRoots = new ArrayList<>();
+		}
+
+		try {
+			marker.live.add(new ByteArrayWrapper(ROOTS_KEY));
+			for (byte[] root : markRoots)
+				marker.mark(root);
+
+			Candidates candidates = new Candidates(marker);
+			Candidates storageCandidates = marker.storage == null ? null : new Candidates(marker.storage);
+
+			long removed = 0;
+			long reclaimed = 0;
+			synchronized (lock) {
+				// the synced roots may bring back some of the candidates
+				marker.readCurrent();
+				for (byte[] root : syncedRoots)
+					marker.mark(root);
+				syncedRoots = null;
+
+				removed += candidates.delete();
+				reclaimed += candidates.reclaimed;
+				if (storageCandidates != null) {
+					removed += storageCandidates.delete();
+					reclaimed += storageCandidates.reclaimed;
+				}
+			}
+
+			removedNodes.addAndGet(removed);
+			reclaimedBytes.addAndGet(reclaimed);
+			logger.info("State pruning: removed nodes [ {} ], reclaimed [ {} ] bytes, live nodes [ {} ], time [ {}ms ]",
+					removed, reclaimed, marker.countLive(), System.currentTimeMillis() - startTime);
+		} finally {
+			synchronized (lock) {
+				syncedRoots = null;
+			}
+			marker.close();
+		}
+	}
+
+	/* the rows of the snapshot which were not marked */
+	private static class Candidates {
+
+		private final Marker marker;
+		private final List<byte[]> keys = new ArrayList<>();
+		private final List<Integer> sizes = new ArrayList<>();
+		private long reclaimed;
+
+		Candidates(Marker marker) {
+			this.marker = marker;
+			KeyValueStore.RowIterator iterator = marker.snapshot.iterator();
+			try {
+				while (iterator.hasNext()) {
+					Map.Entry<byte[], byte[]> entry = iterator.next();
+					if (!marker.live.contains(new ByteArrayWrapper(entry.getKey()))) {
+						keys.add(entry.getKey());
+						sizes.add(entry.getKey().length + entry.getValue().length);
+					}
+				}
+			} finally {
+				iterator.close();
+			}
+		}
+
+		/* deletes the candidates which are still not marked by one batch */
+		long delete() {
+			Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+			for (int i = 0; i < keys.size(); ++i) {
+				ByteArrayWrapper key = new ByteArrayWrapper(keys.get(i));
+				if (marker.live.contains(key)) continue;
+
+				batch.put(key, null);
+				reclaimed += sizes.get(i);
+			}
+			marker.db.write(batch);
+			return batch.size();
+		}
+	}
+
+	/* marks the nodes of the tries, the marked nodes are not read again */
+	private static class Marker {
+
+		private final KeyValueStore db;
+		/* marks the storage tries and the code of the accounts, null for a storage trie */
+		private final Marker storage;
+		private final Set<ByteArrayWrapper> live = new HashSet<>();
+		private final KeyValueStore.Snapshot snapshotOpened;
+		/* null reads the current rows */
+		private KeyValueStore.Snapshot snapshot;
+
+		Marker(KeyValueStore db, Marker storage) {
+			this.db = db;
+			this.storage = storage;
+			this.snapshotOpened = db.getSnapshot();
+			this.snapshot = snapshotOpened;
+		}
+
+		void mark(byte[] hash) {
+			if (!live.add(new ByteArrayWrapper(hash))) return;
+
+			byte[] data = snapshot == null ? db.get(hash) : snapshot.get(hash);
+			markChildren(TrieNode.fromRlpEncoded(data));
+		}
+
+		private void markChildren(TrieNode node) {
+			if (node instanceof ExtensionNode) {
+				markChild(((ExtensionNode) node).getChild());
+			} else if (node instanceof BranchNode) {
+				for (int i = 0; i < 16; ++i)
+					markChild(((BranchNode) node).getChild(i));
+				markAccount(((BranchNode) node).getValue());
+			} else if (node instanceof LeafNode) {
+				markAccount(((LeafNode) node).getValue());
+			}
+		}
+
+		private void markChild(TrieNode child) {
+			if (child instanceof HashRef)
+				mark(child.getHash());
+			else
+				markChildren(child);
+		}
+
+		private void markAccount(byte[] value) {
+			if (storage == null || value == null || value.length == 0) return;
+
+			AccountState account = new AccountState(value);
+			if (account.getStateRoot() != null && account.getStateRoot().length > 0)
+				storage.mark(account.getStateRoot());
+			if (account.getCodeHash() != null && account.getCodeHash().length > 0)
+				storage.live.add(new ByteArrayWrapper(account.getCodeHash()));
+		}
+
+		void readCurrent() {
+			snapshot = null;
+			if (storage != null)
+				storage.readCurrent();
+		}
+
+		int countLive() {
+			return live.size() + (storage == null ? 0 : storage.countLive());
+		}
+
+		void close() {
+			snapshotOpened.close();
+			if (storage != null)
+				storage.close();
+		}
+	}
+
+	/**
+	 * Waits for the running pruning and stops the background thread
+	 */
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getRemovedNodes() {
+		return removedNodes.get();
+	}
+
+	public long getReclaimedBytes() {
+		return reclaimedBytes.get();
+	}
+}
@@ -0,0 +1,326 @@
+package org.ethereum.db;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.trie.Trie;
+import org.ethereum.trie.TrieBuilder;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPElement;
+import org.ethereum.util.RLPList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+
+/**
+ * Streams the world state of a root to a compact binary snapshot
+ * and loads it back, a new node starts from the snapshot instead
+ * of replaying all the blocks.
+ *
+ * 	header:	"ESNP", version, root
+ * 	chunk:	length, RLP list of records, CRC32 of the list
+ * 	end:	length 0, number of the accounts
+ *
+ * 	records: [ 1, address, accountState, code ] followed by
+ * 	         [ 2, key, value ] for each storage row of the account
+ *
+ * The accounts and the rows come in the order of the keys so the
+ * import builds the tries by {@link TrieBuilder}, every node is
+ * written once. The storage roots and the state root are checked
+ * against the snapshot before any row is written to the dbs, the
+ * rows are kept in memory until then, so a damaged or cut snapshot
+ * leaves the dbs as they were.
+ */
+public class StateSnapshot {
+
+    private static Logger logger = LoggerFactory.getLogger("db");
+
+    private static final byte[] MAGIC = "ESNP".getBytes();
+    private static final int VERSION = 1;
+
+    private static final byte ACCOUNT = 1;
+    private static final byte STORAGE_ROW = 2;
+
+    /* records are written by chunks of about this size */
+    private static final int CHUNK_SIZE = 1 << 20;
+    /* number of the rows written by one batch */
+    private static final int BATCH_PUTS = 10000;
+
+    private final KeyValueStore stateDb;
+    private final Database detailsDb;
+    private final KeyValueStore storageDb;
+
+    /**
+     * @param stateDb - the state trie nodes
+     * @param detailsDb - the contract details by address, the export
+     *          doesn't read it
+     * @param storageDb - the storage trie nodes and the code
+     */
+    public StateSnapshot(KeyValueStore stateDb, Database detailsDb, KeyValueStore storageDb) {
+        this.stateDb = stateDb;
+        this.detailsDb = detailsDb;
+        this.storageDb = storageDb;
+    }
+
+    /**
+     * Writes the state of the root, the root has to be saved in the db
+     *
+     * @return number of the exported accounts
+     */
+    public long exportState(byte[] root, OutputStream out) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        final DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(root.length);
+        data.write(root);
+
+        final ChunkWriter writer = new ChunkWriter(data);
+        try {
+            new Trie(stateDb, root).scanValues(new Trie.ValueAction() {
+                @Override
+                public void doOnValue(byte[] address, byte[] value) {
+                    AccountState state = new AccountState(value);
+                    byte[] code = state.getCodeHash() == null ? null : storageDb.get(state.getCodeHash());
+                    writer.add(ACCOUNT, address, value, code);
+
+                    if (!isEmpty(state.getStateRoot()))
+                        new Trie(storageDb, state.getStateRoot()).scanValues(new Trie.ValueAction() {
+                            @Override
+                            public void doOnValue(byte[] key, byte[] row) {
+                                writer.add(STORAGE_ROW, key, row);
+                            }
+                        });
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+
+        data.writeInt(0);
+        data.writeLong(writer.accounts);
+        data.flush();
+
+        logger.info("State exported: root [ {} ] accounts [ {} ] storage rows [ {} ] time [ {}ms ]",
+                Hex.toHexString(root), writer.accounts, writer.rows, System.currentTimeMillis() - startTime);
+        return writer.accounts;
+    }
+
+    /**
+     * Loads the snapshot to the dbs
+     *
+     * @return the state root
+     * @throws IOException if the snapshot is damaged or doesn't match its root
+     */
+    public byte[] importState(InputStream in) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        DataInputStream data = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic) || data.readInt() != VERSION)
+            throw new IOException("Not a state snapshot of version " + VERSION);
+        byte[] root = new byte[data.readInt()];
+        data.readFully(root);
+
+        Importer importer = new Importer();
+        for (int length = data.readInt(); length > 0; length = data.readInt()) {
+            byte[] chunk = new byte[length];
+            data.readFully(chunk);
+            CRC32 crc = new CRC32();
+            crc.update(chunk);
+            if (crc.getValue() != data.readLong())
+                throw new IOException("Snapshot chunk checksum mismatch");
+
+            RLPList records = (RLPList) RLP.decode2(chunk).get(0);
+            for (RLPElement record : records)
+                importer.add((RLPList) record);
+        }
+        long accounts = data.readLong();
+
+        byte[] builtRoot = importer.finish();
+        if (accounts != importer.accounts || !Arrays.equals(root, builtRoot))
+            throw new IOException("State root mismatch, expected: " + Hex.toHexString(root)
+                    + " imported: " + Hex.toHexString(builtRoot));
+
+        importer.write();
+
+        logger.info("State imported: root [ {} ] accounts [ {} ] storage rows [ {} ] time [ {}ms ]",
+                Hex.toHexString(root), importer.accounts, importer.rows, System.currentTimeMillis() - startTime);
+        return root;
+    }
+
+    private static boolean isEmpty(byte[] root) {
+        return root == null || root.length == 0;
+    }
+
+    private static byte[] getData(RLPList record, int index) {
+        byte[] data = record.get(index).getRLPData();
+        return data == null ? ByteUtil.EMPTY_BYTE_ARRAY : data;
+    }
+
+    private class ChunkWriter {
+
+        final DataOutputStream out;
+        final List<byte[]> records = new ArrayList<>();
+        int size;
+        long accounts;
+        long rows;
+
+        ChunkWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void add(byte type, byte[]... items) {
+            byte[][] elements = new byte[items.length + 1][];
+            elements[0] = RLP.encodeElement(new byte[] {type});
+            for (int i = 0; i < items.length; ++i)
+                elements[i + 1] = RLP.encodeElement(items[i]);
+            byte[] record = RLP.encodeList(elements);
+
+            records.add(record);
+            size += record.length;
+            if (type == ACCOUNT) ++accounts; else ++rows;
+
+            if (size >= CHUNK_SIZE) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            if (records.isEmpty()) return;
+
+            byte[] chunk = RLP.encodeList(records.toArray(new byte[records.size()][]));
+            CRC32 crc = new CRC32();
+            crc.update(chunk);
+            out.writeInt(chunk.length);
+            out.write(chunk);
+            out.writeLong(crc.getValue());
+
+            records.clear();
+            size = 0;
+        }
+    }
+
+    /* builds the rows in memory, they are written once the roots match */
+    private class Importer {
+
+        final MemoryStore stateRows = new MemoryStore();
+        final MemoryStore storageRows = new MemoryStore();
+        final Map<ByteArrayWrapper, byte[]> details = new HashMap<>();
+        final TrieBuilder state = new TrieBuilder(stateRows);
+        long accounts;
+        long rows;
+
+        /* the account of the following storage rows */
+        byte[] address;
+        AccountState account;
+        byte[] accountRlp;
+        byte[] codeHash;
+        TrieBuilder storageTrie;
+
+        void add(RLPList record) throws IOException {
+            byte type = getData(record, 0)[0];
+            if (type == ACCOUNT) {
+                finishAccount();
+                address = getData(record, 1);
+                accountRlp = getData(record, 2);
+                account = new AccountState(accountRlp);
+
+                byte[] code = record.get(3).getRLPData();
+                codeHash = null;
+                if (code != null) {
+                    codeHash = HashUtil.sha3(code);
+                    if (!Arrays.equals(codeHash, account.getCodeHash()))
+                        throw new IOException("Code hash mismatch: " + Hex.toHexString(address));
+                    storageRows.put(codeHash, code);
+                }
+                ++accounts;
+            } else if (type == STORAGE_ROW && address != null) {
+                if (storageTrie == null)
+                    storageTrie = new TrieBuilder(storageRows);
+                storageTrie.add(getData(record, 1), getData(record, 2));
+                ++rows;
+            } else {
+                throw new IOException("Unexpected snapshot record: " + type);
+            }
+        }
+
+        void finishAccount() throws IOException {
+            if (address == null) return;
+
+            byte[] storageRoot = storageTrie == null ? ByteUtil.EMPTY_BYTE_ARRAY : storageTrie.build();
+            if (!Arrays.equals(storageRoot, isEmpty(account.getStateRoot()) ? ByteUtil.EMPTY_BYTE_ARRAY : account.getStateRoot()))
+                throw new IOException("Storage root mismatch: " + Hex.toHexString(address));
+
+            details.put(new ByteArrayWrapper(address), ContractDetails.encode(storageRoot, codeHash));
+            state.add(address, accountRlp);
+
+            address = null;
+            storageTrie = null;
+        }
+
+        byte[] finish() throws IOException {
+            finishAccount();
+            return state.build();
+        }
+
+        /* the code and the storage are written before the details and
+         * the accounts referring to them */
+        void write() {
+            write(storageRows, storageDb);
+            for (Map.Entry<ByteArrayWrapper, byte[]> row : details.entrySet())
+                detailsDb.put(row.getKey().getData(), row.getValue());
+            write(stateRows, stateDb);
+        }
+
+        void write(MemoryStore rows, KeyValueStore db) {
+            Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+            KeyValueStore.RowIterator iterator = rows.iterator();
+            try {
+                while (iterator.hasNext()) {
+                    Map.Entry<byte[], byte[]> row = iterator.next();
+                    batch.put(new ByteArrayWrapper(row.getKey()), row.getValue());
+                    if (batch.size() >= BATCH_PUTS) {
+                        db.write(batch);
+                        batch.clear();
+                    }
+                }
+            } finally {
+                iterator.close();
+            }
+            db.write(batch);
+        }
+    }
+
+    /* the IOException of the stream, passed through the trie scan */
+    private static class UncheckedIOException extends RuntimeException {
+
+        UncheckedIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
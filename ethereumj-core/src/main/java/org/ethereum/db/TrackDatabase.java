@@ -1,11 +1,16 @@
 package org.ethereum.db;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
+import org.ethereum.util.ByteArrayMap;
+
 /**
+ * Keeps the changes in one map over the tracked database, a deleted
+ * key is kept as a marker so a later put of the key wins. Starting and
+ * rolling back the track is O(1), the map is created by the first change.
+ * The changes committed to a tracking parent are merged into its map,
+ * the map is handed over when the parent has no changes yet.
+ *
  * www.ethereumJ.com
  *
  * @author: Roman Mandeleil
@@ -13,63 +18,79 @@ import java.util.Map;
  */
 public class TrackDatabase implements Database {
 
+    /* marks the deleted keys in the changes */
+    private static final byte[] DELETED = new byte[0];
+
     private Database db;
 
     private boolean trackingChanges;
-    private Map<ByteArrayWrapper, byte[]> changes;
-    private List<ByteArrayWrapper> deletes;
+    private Map<byte[], byte[]> changes;
 
     public TrackDatabase(Database db) {
         this.db = db;
     }
 
     public void startTrack() {
-        changes = new HashMap<>();
-        deletes = new ArrayList<>();
+        changes = null;
         trackingChanges = true;
     }
 
     public void commitTrack() {
-        for(ByteArrayWrapper key : changes.keySet()) {
-            db.put(key.getData(), changes.get(key));
-        }
-        for(ByteArrayWrapper key : deletes) {
-            db.delete(key.getData());
+        if (changes != null) {
+            if (db instanceof TrackDatabase && ((TrackDatabase) db).trackingChanges) {
+                ((TrackDatabase) db).merge(changes);
+            } else {
+                for (Map.Entry<byte[], byte[]> entry : changes.entrySet()) {
+                    if (entry.getValue() == DELETED)
+                        db.delete(entry.getKey());
+                    else
+                        db.put(entry.getKey(), entry.getValue());
+                }
+            }
         }
         changes = null;
         trackingChanges = false;
     }
 
     public void rollbackTrack() {
-        changes = new HashMap<>();
-        deletes = new ArrayList<>();
         changes = null;
         trackingChanges = false;
     }
 
+    private void merge(Map<byte[], byte[]> committed) {
+        if (changes == null)
+            changes = committed;
+        else
+            changes.putAll(committed);
+    }
+
+    private Map<byte[], byte[]> getChanges() {
+        if (changes == null)
+            changes = new ByteArrayMap<>();
+        return changes;
+    }
+
     public void put(byte[] key, byte[] value) {
         if (trackingChanges) {
-        	ByteArrayWrapper wKey = new ByteArrayWrapper(key);
-			changes.put(wKey, value);
+            getChanges().put(key, value);
         } else {
             db.put(key, value);
         }
     }
 
     public byte[] get(byte[] key) {
-    	if(trackingChanges) {
-    		ByteArrayWrapper wKey = new ByteArrayWrapper(key);
-            if (deletes.contains(wKey)) return null;
-            if (changes.get(wKey) != null) return changes.get(wKey);
+        if (trackingChanges && changes != null) {
+            byte[] value = changes.get(key);
+            if (value == DELETED) return null;
+            if (value != null) return value;
         }
-       	return db.get(key);
+        return db.get(key);
     }
 
     /** Delete object (key) from db **/
     public void delete(byte[] key) {
         if (trackingChanges) {
-            ByteArrayWrapper wKey = new ByteArrayWrapper(key);
-            deletes.add(wKey);
+            getChanges().put(key, DELETED);
         } else {
             db.delete(key);
         }
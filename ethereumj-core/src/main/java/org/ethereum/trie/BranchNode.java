@@ -0,0 +1,67 @@
+package org.ethereum.trie;
+
+import java.util.Arrays;
+
+import org.ethereum.util.RLP;
+
+/**
+ * Node with a child for each of the 16 nibbles
+ * and the value of the key ending at this node
+ */
+public class BranchNode extends TrieNode {
+
+    private final TrieNode[] children;
+    private final byte[] value;
+
+    public BranchNode() {
+        this(new TrieNode[16], null);
+    }
+
+    public BranchNode(TrieNode[] children, byte[] value) {
+        this.children = children;
+        this.value = value;
+    }
+
+    @Override
+    protected byte[] encode() {
+        byte[][] items = new byte[17][];
+        for (int i = 0; i < 16; ++i)
+            items[i] = reference(children[i]);
+        items[16] = value == null ? EMPTY_ELEMENT : RLP.encode(value);
+        return encodeList(items);
+    }
+
+    public TrieNode getChild(int nibble) {
+        return children[nibble];
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * @return a copy of this node with the child replaced
+     */
+    public BranchNode withChild(int nibble, TrieNode child) {
+        TrieNode[] newChildren = Arrays.copyOf(children, 16);
+        newChildren[nibble] = child;
+        return new BranchNode(newChildren, value);
+    }
+
+    /**
+     * @return a copy of this node with the value replaced
+     */
+    public BranchNode withValue(byte[] value) {
+        return new BranchNode(children, value);
+    }
+
+    /**
+     * @return number of the children and the value set
+     */
+    public int countItems() {
+        int count = value == null ? 0 : 1;
+        for (TrieNode child : children)
+            if (child != null) ++count;
+        return count;
+    }
+}
@@ -1,104 +1,318 @@
 package org.ethereum.trie;
 
+import static org.ethereum.config.SystemProperties.CONFIG;
+
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.ethereum.crypto.HashUtil;
 import org.ethereum.db.ByteArrayWrapper;
-import org.ethereum.util.Value;
-import org.iq80.leveldb.DB;
+import org.ethereum.db.KeyValueStore;
+import org.ethereum.util.ByteArrayMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * The cache keeps the trie nodes in memory until they are committed
+ * to the database. When a byte budget is configured [trie.cache.size]
+ * the clean nodes (already committed or loaded from the database) are
+ * kept in a segmented LRU and evicted once the budget is exceeded,
+ * dirty nodes are pinned in memory until {@link #commit()}.
+ *
+ * The nodes are kept by the hash bytes without wrapping them, the
+ * map is guarded by its own lock. The LRU segments are keyed by the
+ * cached nodes themselves, each is in the map once, so a hit doesn't
+ * wrap the key either.
+ *
  * www.ethereumJ.com
  * @author: Nick Savers
  * Created on: 20/05/2014 10:44
  */
 public class Cache {
-	
-	private Map<ByteArrayWrapper, Node> nodes = new ConcurrentHashMap<>();
-	private DB db;
+
+	private static Logger logger = LoggerFactory.getLogger("trie");
+
+	/* approximate memory taken by the map entries and the node */
+	private static final int NODE_OVERHEAD = 128;
+
+	/* share of the budget reserved for the nodes accessed more than once */
+	private static final int PROTECTED_PERCENT = 80;
+
+	private final ByteArrayMap<Node> nodes = new ByteArrayMap<>();
+	private KeyValueStore db;
+	/* the cache this one was copied from, its nodes are read before the db
+	 * until this cache is committed or undone, its clean nodes are in the db */
+	private Cache parent;
 	private boolean isDirty;
 
-	public Cache(DB db) {
+	private final long maxCacheSize;
+	private final long maxProtectedSize;
+
+	/* segmented LRU of the clean nodes: node -> key, by the identity of the node */
+	private final LinkedHashMap<Node, byte[]> probation = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<Node, byte[]> protect = new LinkedHashMap<>(16, 0.75f, true);
+	private long probationSize;
+	private long protectSize;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public Cache(KeyValueStore db) {
+		this(db, CONFIG.trieCacheSize());
+	}
+
+	/**
+	 * @param db - the database backing the cache, may be null
+	 * @param maxCacheSize - budget in bytes for the clean nodes, 0 keeps all the nodes
+	 */
+	public Cache(KeyValueStore db, long maxCacheSize) {
 		this.db = db;
+		this.maxCacheSize = db == null ? 0 : Math.max(0, maxCacheSize);
+		this.maxProtectedSize = this.maxCacheSize * PROTECTED_PERCENT / 100;
+	}
+
+	/**
+	 * The copy takes only the dirty nodes, they are not in the db yet,
+	 * the clean nodes are read through this cache or from the db
+	 */
+	public Cache copy() {
+		Cache cache = new Cache(db, maxCacheSize);
+		cache.parent = db == null ? null : this;
+		synchronized (nodes) {
+			for (Map.Entry<byte[], Node> entry : nodes.entrySet()) {
+				Node node = entry.getValue();
+				if (db == null || node.isDirty())
+					cache.nodes.put(entry.getKey(), node.copy());
+			}
+		}
+		cache.isDirty = this.isDirty;
+		return cache;
 	}
 
 	/**
 	 * Put the node in the cache if RLP encoded value is longer than 32 bytes
-	 * 
-	 * @param o the Node which could be a pair-, multi-item Node or single Value  
-	 * @return sha3 hash of RLP encoded node if length > 32 otherwise return node itself
+	 *
+	 * @param node the Trie-node, pair- or multi-item node
+	 * @return reference to the node by sha3 hash if length > 32 otherwise return node itself
 	 */
-	public Object put(Object o) {
-		Value value = new Value(o);
-		byte[] enc = value.encode();
-		if (enc.length >= 32) {
-			byte[] sha = HashUtil.sha3(enc);
-			this.nodes.put(new ByteArrayWrapper(sha), new Node(value, true));
-			this.isDirty = true;
-			return sha;
+	public TrieNode put(TrieNode node) {
+		if (node.isEmbedded())
+			return node;
+
+		byte[] sha = node.getHash();
+		Node replaced;
+		synchronized (nodes) {
+			replaced = this.nodes.put(sha, new Node(node, true));
 		}
-		return value;
+		if (isBounded() && replaced != null) unpin(replaced);
+		this.isDirty = true;
+		return new HashRef(sha);
 	}
 
-	public Value get(byte[] key) {
-		ByteArrayWrapper keyObj = new ByteArrayWrapper(key);
+	public TrieNode get(byte[] key) {
 		// First check if the key is the cache
-		if (this.nodes.get(keyObj) != null) {
-			return this.nodes.get(keyObj).getValue();
+		Node node = getNode(key);
+		if (node != null) {
+			hits.incrementAndGet();
+			if (isBounded() && !node.isDirty()) touch(node);
+			return node.getValue();
 		}
+		misses.incrementAndGet();
+
+		if (parent != null) {
+			node = parent.getNode(key);
+			if (node != null) return node.getValue();
+		}
+
+		if (db == null) return null;
 
 		// Get the key of the database instead and cache it
 		byte[] data = this.db.get(key);
-		Value value = Value.fromRlpEncoded(data);
+		TrieNode value = TrieNode.fromRlpEncoded(data);
+		if (value == null) return null;
+
 		// Create caching node
-		this.nodes.put(keyObj, new Node(value, false));
+		node = new Node(value, false);
+		synchronized (nodes) {
+			this.nodes.put(key, node);
+		}
 
+		if (isBounded()) {
+			track(node, key);
+			evict();
+		}
 		return value;
 	}
 
+	/**
+	 * Returns the node without caching it, a node which is not in
+	 * the cache is read from the db, the hit rate is not counted
+	 */
+	public TrieNode peek(byte[] key) {
+		Node node = getNode(key);
+		if (node == null && parent != null)
+			node = parent.getNode(key);
+		if (node != null)
+			return node.getValue();
+
+		return db == null ? null : TrieNode.fromRlpEncoded(this.db.get(key));
+	}
+
+	private Node getNode(byte[] key) {
+		synchronized (nodes) {
+			return nodes.get(key);
+		}
+	}
+
 	public void delete(byte[] key) {
-		ByteArrayWrapper keyObj = new ByteArrayWrapper(key);
-		this.nodes.remove(keyObj);
+		Node removed;
+		synchronized (nodes) {
+			removed = this.nodes.remove(key);
+		}
+		if (isBounded() && removed != null) unpin(removed);
 
-        if (db == null) return;
+		if (db == null) return;
 		this.db.delete(key);
 	}
 
 	public void commit() {
 
-        if (db == null) return;
+		if (db == null) return;
+
+		// the nodes of the parent are read from the db from now, the parent is released
+		this.parent = null;
 
 		// Don't try to commit if it isn't dirty
 		if (!this.isDirty) {
 			return;
 		}
 
-		for (ByteArrayWrapper key : this.nodes.keySet()) {
-			Node node = this.nodes.get(key);
-			if (node.isDirty()) {
-				this.db.put(key.getData(), node.getValue().encode());
-				node.setDirty(false);
+		// All the dirty nodes are written atomically by one batch, the db takes the wrapped keys
+		List<Node> written = new ArrayList<>();
+		List<byte[]> writtenKeys = new ArrayList<>();
+		Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+		synchronized (nodes) {
+			for (Map.Entry<byte[], Node> entry : this.nodes.entrySet()) {
+				Node node = entry.getValue();
+				if (node.isDirty()) {
+					byte[] enc = node.getValue().getEncoded();
+					batch.put(new ByteArrayWrapper(entry.getKey()), enc);
+					written.add(node);
+					writtenKeys.add(entry.getKey());
+				}
 			}
 		}
+		// evict() takes the map lock inside the segments lock, so track() is called out of the map lock
+		if (isBounded())
+			for (int i = 0; i < written.size(); ++i)
+				track(written.get(i), writtenKeys.get(i));
+		this.db.write(batch);
+
+		for (Node node : written)
+			node.setDirty(false);
 		this.isDirty = false;
-		
-		// TODO come up with a way to clean up this.nodes 
-		// from memory without breaking consensus
+
+		if (isBounded()) {
+			evict();
+			if (logger.isDebugEnabled())
+				logger.debug("Trie cache: size [ {} ] nodes [ {} ] hits [ {} ] misses [ {} ] evictions [ {} ]",
+						getCachedSize(), nodes.size(), hits.get(), misses.get(), evictions.get());
+		}
 	}
 
 	public void undo() {
-		Iterator<Map.Entry<ByteArrayWrapper, Node>> iter = this.nodes.entrySet().iterator();
-		while (iter.hasNext()) {
-		    if(iter.next().getValue().isDirty()) {
-		        iter.remove();
-		    }
+		this.parent = null;
+		synchronized (nodes) {
+			Iterator<Map.Entry<byte[], Node>> iter = this.nodes.entrySet().iterator();
+			while (iter.hasNext()) {
+			    if(iter.next().getValue().isDirty()) {
+			        iter.remove();
+			    }
+			}
 		}
 		this.isDirty = false;
 	}
 
+	private boolean isBounded() {
+		return maxCacheSize > 0;
+	}
+
+	/* estimated memory of the cached node, its encoding is kept by the node */
+	private static int sizeOf(Node node, byte[] key) {
+		return node.getValue().getEncoded().length + key.length + NODE_OVERHEAD;
+	}
+
+	/* a clean node enters the probation segment */
+	private synchronized void track(Node node, byte[] key) {
+		if (probation.containsKey(node) || protect.containsKey(node)) return;
+		probation.put(node, key);
+		probationSize += sizeOf(node, key);
+	}
+
+	/* a clean node accessed again is promoted to the protected segment */
+	private synchronized void touch(Node node) {
+		byte[] key = probation.remove(node);
+		if (key == null) {
+			protect.get(node);
+			return;
+		}
+		int size = sizeOf(node, key);
+		probationSize -= size;
+		protect.put(node, key);
+		protectSize += size;
+
+		// demote the least recently used protected nodes
+		Iterator<Map.Entry<Node, byte[]>> iter = protect.entrySet().iterator();
+		while (protectSize > maxProtectedSize && iter.hasNext()) {
+			Map.Entry<Node, byte[]> eldest = iter.next();
+			iter.remove();
+			size = sizeOf(eldest.getKey(), eldest.getValue());
+			protectSize -= size;
+			probation.put(eldest.getKey(), eldest.getValue());
+			probationSize += size;
+		}
+	}
+
+	/* the node was replaced by a dirty one or removed, it is no longer evictable */
+	private synchronized void unpin(Node node) {
+		byte[] key = probation.remove(node);
+		if (key != null) {
+			probationSize -= sizeOf(node, key);
+			return;
+		}
+		key = protect.remove(node);
+		if (key != null) protectSize -= sizeOf(node, key);
+	}
+
+	private synchronized void evict() {
+		evict(probation.entrySet().iterator(), true);
+		evict(protect.entrySet().iterator(), false);
+	}
+
+	private void evict(Iterator<Map.Entry<Node, byte[]>> iter, boolean isProbation) {
+		while (probationSize + protectSize > maxCacheSize && iter.hasNext()) {
+			Map.Entry<Node, byte[]> eldest = iter.next();
+			iter.remove();
+			Node node = eldest.getKey();
+			byte[] key = eldest.getValue();
+			if (isProbation)
+				probationSize -= sizeOf(node, key);
+			else
+				protectSize -= sizeOf(node, key);
+
+			synchronized (nodes) {
+				if (this.nodes.get(key) == node && !node.isDirty())
+					this.nodes.remove(key);
+			}
+			evictions.incrementAndGet();
+		}
+	}
+
 	public boolean isDirty() {
 		return isDirty;
 	}
@@ -107,11 +321,37 @@ public class Cache {
 		this.isDirty = isDirty;
 	}
 
-	public Map<ByteArrayWrapper, Node> getNodes() {
+	/**
+	 * @return the nodes by the hash, the access has to be synchronized on the map
+	 */
+	public Map<byte[], Node> getNodes() {
 		return nodes;
 	}
 
-	public DB getDb() {
+	public KeyValueStore getDb() {
 		return db;
 	}
+
+	public long getMaxCacheSize() {
+		return maxCacheSize;
+	}
+
+	/**
+	 * @return estimated bytes held by the clean (evictable) nodes
+	 */
+	public synchronized long getCachedSize() {
+		return probationSize + protectSize;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
 }
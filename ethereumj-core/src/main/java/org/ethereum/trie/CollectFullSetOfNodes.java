@@ -1,6 +1,6 @@
 package org.ethereum.trie;
 
-import org.ethereum.util.Value;
+import org.ethereum.db.ByteArrayWrapper;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -13,14 +13,14 @@ import java.util.Set;
  */
 
 public class CollectFullSetOfNodes implements Trie.ScanAction {
-    Set<byte[]> nodes = new HashSet<>();
+    Set<ByteArrayWrapper> nodes = new HashSet<>();
 
     @Override
-    public void doOnNode(byte[] hash, Value node) {
-        nodes.add(hash);
+    public void doOnNode(byte[] hash, TrieNode node) {
+        nodes.add(new ByteArrayWrapper(hash));
     }
 
-    public Set<byte[]> getCollectedHashes(){
+    public Set<ByteArrayWrapper> getCollectedHashes(){
         return nodes;
     }
 }
@@ -1,6 +1,5 @@
 package org.ethereum.trie;
 
-import org.ethereum.util.Value;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -17,7 +16,7 @@ public class CountAllNodes implements Trie.ScanAction {
     int counted = 0;
 
     @Override
-    public void doOnNode(byte[] hash, Value node) {
+    public void doOnNode(byte[] hash, TrieNode node) {
         ++counted;
     }
 
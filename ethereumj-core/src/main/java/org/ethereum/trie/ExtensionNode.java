@@ -0,0 +1,33 @@
+package org.ethereum.trie;
+
+import static org.ethereum.util.CompactEncoder.packNibbles;
+
+import org.ethereum.util.RLP;
+
+/**
+ * Node shortcutting a path of nodes which have
+ * only one child each, leads to a branch node
+ */
+public class ExtensionNode extends TrieNode {
+
+    private final byte[] key;
+    private final TrieNode child;
+
+    public ExtensionNode(byte[] key, TrieNode child) {
+        this.key = key;
+        this.child = child;
+    }
+
+    @Override
+    protected byte[] encode() {
+        return encodeList(RLP.encode(packNibbles(key)), reference(child));
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    public TrieNode getChild() {
+        return child;
+    }
+}
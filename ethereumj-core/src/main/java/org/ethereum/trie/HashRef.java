@@ -0,0 +1,47 @@
+package org.ethereum.trie;
+
+import org.ethereum.util.RLP;
+import org.spongycastle.util.encoders.Hex;
+
+/**
+ * Reference to a node by its hash, the node itself
+ * is retrieved from the cache (or the db) on demand
+ */
+public class HashRef extends TrieNode {
+
+    private final byte[] hash;
+
+    public HashRef(byte[] hash) {
+        this.hash = hash;
+    }
+
+    @Override
+    protected byte[] encode() {
+        throw new IllegalStateException("Node is not resolved: " + Hex.toHexString(hash));
+    }
+
+    @Override
+    public byte[] getHash() {
+        return hash;
+    }
+
+    @Override
+    boolean isEncoded() {
+        return true;
+    }
+
+    @Override
+    public boolean isEmbedded() {
+        return false;
+    }
+
+    @Override
+    public byte[] getReference() {
+        return RLP.encode(hash);
+    }
+
+    @Override
+    public String toString() {
+        return Hex.toHexString(hash);
+    }
+}
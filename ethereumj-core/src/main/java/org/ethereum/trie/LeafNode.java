@@ -0,0 +1,33 @@
+package org.ethereum.trie;
+
+import static org.ethereum.util.CompactEncoder.packNibbles;
+
+import org.ethereum.util.RLP;
+
+/**
+ * Node holding the value at the end of the key path,
+ * the key nibbles always end with the terminator (16)
+ */
+public class LeafNode extends TrieNode {
+
+    private final byte[] key;
+    private final byte[] value;
+
+    public LeafNode(byte[] key, byte[] value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    protected byte[] encode() {
+        return encodeList(RLP.encode(packNibbles(key)), RLP.encode(value));
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+}
@@ -1,8 +1,5 @@
 package org.ethereum.trie;
 
-import org.ethereum.util.Value;
-
-
 /** 
  * A Node in a Merkle Patricia Tree is one of the following:
  * 
@@ -45,15 +42,15 @@ import org.ethereum.util.Value;
  */
 public class Node {
 
-	/* RLP encoded value of the Trie-node */
-	private Value value;
+	/* the Trie-node, keeps its RLP encoding */
+	private TrieNode value;
 	private boolean dirty;
 
-	public Node(Value val) {
+	public Node(TrieNode val) {
 		this(val, false);
 	}
 	
-	public Node(Value val, boolean dirty) {
+	public Node(TrieNode val, boolean dirty) {
 		this.value = val;
 		this.dirty = dirty;
 	}
@@ -70,7 +67,7 @@ public class Node {
 		this.dirty = ditry;
 	}
 	
-	public Value getValue() {
+	public TrieNode getValue() {
 		return value;
 	}
 }
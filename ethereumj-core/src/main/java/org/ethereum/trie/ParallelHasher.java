@@ -0,0 +1,64 @@
+package org.ethereum.trie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the hashes of the new (not yet encoded) nodes of a trie
+ * by a fork-join pool. The children of a branch node are independent
+ * subtrees, the subtrees under the top branch levels are hashed in
+ * parallel and the parent is encoded once all its children are done.
+ * The result is exactly the same as of the sequential hashing, the
+ * nodes simply find the encodings of their children already cached.
+ */
+class ParallelHasher {
+
+    /* branch levels split into the parallel tasks, 16^2 subtrees at most */
+    private static final int MAX_FORK_DEPTH = 2;
+
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    private ParallelHasher() {
+    }
+
+    /**
+     * @param node - the root of the subtree to hash
+     */
+    static void hash(TrieNode node) {
+        pool.invoke(new HashTask(node, 0));
+    }
+
+    private static class HashTask extends RecursiveAction {
+
+        private final TrieNode node;
+        private final int depth;
+
+        HashTask(TrieNode node, int depth) {
+            this.node = node;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            TrieNode current = node;
+
+            // the extension chain has no parallelism to exploit
+            while (current instanceof ExtensionNode && !current.isEncoded())
+                current = ((ExtensionNode) current).getChild();
+
+            if (current instanceof BranchNode && !current.isEncoded() && depth < MAX_FORK_DEPTH) {
+                BranchNode branch = (BranchNode) current;
+                List<HashTask> tasks = new ArrayList<>();
+                for (int i = 0; i < 16; ++i) {
+                    TrieNode child = branch.getChild(i);
+                    if (child != null && !child.isEncoded())
+                        tasks.add(new HashTask(child, depth + 1));
+                }
+                invokeAll(tasks);
+            }
+            node.getReference();
+        }
+    }
+}
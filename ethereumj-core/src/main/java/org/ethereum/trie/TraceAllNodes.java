@@ -1,6 +1,5 @@
 package org.ethereum.trie;
 
-import org.ethereum.util.Value;
 import org.spongycastle.util.encoders.Hex;
 
 /**
@@ -15,7 +14,7 @@ public class TraceAllNodes implements Trie.ScanAction {
     StringBuilder output = new StringBuilder();
 
     @Override
-    public void doOnNode(byte[] hash, Value node) {
+    public void doOnNode(byte[] hash, TrieNode node) {
 
         output.append(Hex.toHexString(hash)).append(" ==> ").append(node.toString()).append("\n");
     }
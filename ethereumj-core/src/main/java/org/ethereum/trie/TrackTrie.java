@@ -1,14 +1,16 @@
 package org.ethereum.trie;
 
-import org.ethereum.db.ByteArrayWrapper;
-import org.ethereum.util.ByteUtil;
+import org.ethereum.util.ByteArrayMap;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
+ * Keeps the changes in one map over the tracked trie, a deleted key
+ * is kept as a marker so a later update of the key wins. Starting and
+ * rolling back the track is O(1), the map is created by the first change.
+ * The changes committed to a tracking parent are merged into its map,
+ * the map is handed over when the parent has no changes yet.
+ *
  * www.ethereumJ.com
  *
  * @author: Roman Mandeleil
@@ -16,44 +18,62 @@ import java.util.Map;
  */
 public class TrackTrie implements TrieFacade {
 
+	/* marks the deleted keys in the changes */
+	private static final byte[] DELETED = new byte[0];
+
 	private TrieFacade trie;
 
 	private boolean trackingChanges = false;
-	private Map<ByteArrayWrapper, byte[]> changes;
-	private List<ByteArrayWrapper> deletes;
+	private Map<byte[], byte[]> changes;
 
 	public TrackTrie(TrieFacade trie) {
 		this.trie = trie;
 	}
 
 	public void startTrack() {
-		changes = new HashMap<>();
-		deletes = new ArrayList<>();
+		changes = null;
 		trackingChanges = true;
 	}
 
 	public void commitTrack() {
-		for (ByteArrayWrapper key : changes.keySet()) {
-			trie.update(key.getData(), changes.get(key));
-		}
-		for (ByteArrayWrapper key : deletes) {
-			trie.update(key.getData(), ByteUtil.EMPTY_BYTE_ARRAY);
+		if (changes != null) {
+			if (trie instanceof TrackTrie && ((TrackTrie) trie).trackingChanges) {
+				((TrackTrie) trie).merge(changes);
+			} else {
+				for (Map.Entry<byte[], byte[]> entry : changes.entrySet()) {
+					if (entry.getValue() == DELETED)
+						trie.delete(entry.getKey());
+					else
+						trie.update(entry.getKey(), entry.getValue());
+				}
+			}
 		}
 		changes = null;
 		trackingChanges = false;
 	}
 
 	public void rollbackTrack() {
-		changes = new HashMap<>();
-		deletes = new ArrayList<>();
 		changes = null;
 		trackingChanges = false;
 	}
 
+	private void merge(Map<byte[], byte[]> committed) {
+		if (changes == null)
+			changes = committed;
+		else
+			changes.putAll(committed);
+	}
+
+	private Map<byte[], byte[]> getChanges() {
+		if (changes == null)
+			changes = new ByteArrayMap<>();
+		return changes;
+	}
+
 	@Override
 	public void update(byte[] key, byte[] value) {
 		if (trackingChanges) {
-			changes.put(new ByteArrayWrapper(key), value);
+			getChanges().put(key, value);
 		} else {
 			trie.update(key, value);
 		}
@@ -61,13 +81,12 @@ public class TrackTrie implements TrieFacade {
 
 	@Override
 	public byte[] get(byte[] key) {
-		if (trackingChanges) {
-			ByteArrayWrapper wKey = new ByteArrayWrapper(key);
-			if (deletes.contains(wKey))
+		if (trackingChanges && changes != null) {
+			byte[] value = changes.get(key);
+			if (value == DELETED)
 				return null;
-			if (changes.get(wKey) != null)
-				return changes.get(wKey);
-			return trie.get(key);
+			if (value != null)
+				return value;
 		}
 		return trie.get(key);
 	}
@@ -75,8 +94,7 @@ public class TrackTrie implements TrieFacade {
 	@Override
 	public void delete(byte[] key) {
 		if (trackingChanges) {
-			ByteArrayWrapper wKey = new ByteArrayWrapper(key);
-			deletes.add(wKey);
+			getChanges().put(key, DELETED);
 		} else {
 			trie.delete(key);
 		}
@@ -1,19 +1,16 @@
 package org.ethereum.trie;
 
-import static java.util.Arrays.copyOfRange;
+import static org.ethereum.config.SystemProperties.CONFIG;
 import static org.ethereum.util.ByteUtil.matchingNibbleLength;
 import static org.ethereum.util.CompactEncoder.binToNibbles;
-import static org.ethereum.util.CompactEncoder.packNibbles;
-import static org.ethereum.util.CompactEncoder.unpackToNibbles;
 import static org.spongycastle.util.Arrays.concatenate;
 
 import java.util.*;
 
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.db.KeyValueStore;
 import org.ethereum.util.ByteUtil;
-import org.ethereum.util.Value;
-import org.iq80.leveldb.DB;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -43,20 +40,24 @@ public class Trie implements TrieFacade {
 
     private Logger logger = LoggerFactory.getLogger("trie");
 
-    private static byte PAIR_SIZE = 2;
-    private static byte LIST_SIZE = 17;
-
-    private Object prevRoot;
-    private Object root;
+    private TrieNode prevRoot;
+    private TrieNode root;
     private Cache  cache;
 
-    public Trie(DB db) {
-        this(db, "");
+    /* new nodes are kept in memory and stored to the cache on sync */
+    private boolean lazyHash;
+
+    /* number of the new nodes which are not hashed yet */
+    private int dirtyNodes;
+    private int parallelHashThreshold = CONFIG.trieParallelHashThreshold();
+
+    public Trie(KeyValueStore db) {
+        this(db, ByteUtil.EMPTY_BYTE_ARRAY);
     }
 
-    public Trie(DB db, Object root) {
+    public Trie(KeyValueStore db, byte[] rootHash) {
         this.cache = new Cache(db);
-        this.root = root;
+        this.root = toRoot(rootHash);
         this.prevRoot = root;
     }
 
@@ -64,26 +65,70 @@ public class Trie implements TrieFacade {
         return new TrieIterator(this);
     }
 
+    /**
+     * @param prefix - only the keys starting by the prefix are iterated
+     * @param useCache - false doesn't put the nodes read from the db to the cache
+     */
+    public TrieIterator getIterator(byte[] prefix, boolean useCache) {
+        return new TrieIterator(this, prefix, useCache);
+    }
+
     public Cache getCache() {
         return this.cache;
     }
 
-    public Object getPrevRoot() {
+    public TrieNode getPrevRoot() {
         return prevRoot;
     }
 
-    public Object getRoot() {
+    /**
+     * @return the root node, a {@link HashRef} if the root is kept
+     *          in the cache or null for the empty trie
+     */
+    public TrieNode getRoot() {
         return root;
     }
 
-    public void setRoot(Object root) {
-    	this.root = root;
+    public void setRoot(byte[] rootHash) {
+    	// the new root is resolved by the cache, the pending nodes go there first
+    	this.storeNodes();
+    	this.root = toRoot(rootHash);
     }
     
     public void setCache(Cache cache) {
         this.cache = cache;
     }
 
+    public boolean isLazyHash() {
+        return lazyHash;
+    }
+
+    public int getParallelHashThreshold() {
+        return parallelHashThreshold;
+    }
+
+    /**
+     * @param parallelHashThreshold - number of the new nodes from which
+     *          the lazy mode hashes the subtrees in parallel, 0 never
+     */
+    public void setParallelHashThreshold(int parallelHashThreshold) {
+        this.parallelHashThreshold = parallelHashThreshold;
+    }
+
+    /**
+     * In the lazy mode the updated nodes are not encoded, hashed and
+     * put into the cache on every update, they are linked in memory
+     * instead. The hashes are calculated on {@link #getRootHash()}
+     * only for the changed paths, once per node, and the nodes are
+     * moved to the cache on {@link #sync()}.
+     *
+     * @param lazyHash - true to defer the hashing of the new nodes
+     */
+    public void setLazyHash(boolean lazyHash) {
+        if (!lazyHash) storeNodes();
+        this.lazyHash = lazyHash;
+    }
+
     /**************************************
      * Public (query) interface functions *
      **************************************/
@@ -137,9 +182,99 @@ public class Trie implements TrieFacade {
             logger.debug("Retrieving key {}", Hex.toHexString(key));
         }
         byte[] k = binToNibbles(key);
-        Value c = new Value( this.get(this.root, k) );
+        byte[] value = this.get(this.root, k, 0);
 
-        return (c == null)? null : c.asBytes();
+        return (value == null)? ByteUtil.EMPTY_BYTE_ARRAY : value;
+    }
+
+    /**
+     * The proof is made of the encoded nodes on the path of the key which
+     * are referenced by hash, starting by the root. It proves the value of
+     * the key as well as its absence.
+     *
+     * @param key
+     * @return the encoded nodes, empty for the empty trie
+     * @see #verifyProof(byte[], byte[], List)
+     */
+    public List<byte[]> getProof(byte[] key) {
+        List<byte[]> proof = new ArrayList<>();
+        byte[] k = binToNibbles(key);
+
+        TrieNode node = this.resolve(this.root);
+        int offset = 0;
+        while (node != null) {
+            if (proof.isEmpty() || !node.isEmbedded())
+                proof.add(node.getEncoded());
+
+            if (node instanceof LeafNode) {
+                break;
+            } else if (node instanceof ExtensionNode) {
+                ExtensionNode extension = (ExtensionNode) node;
+                byte[] extKey = extension.getKey();
+                if (matchingNibbleLength(k, offset, extKey, 0) != extKey.length) break;
+                offset += extKey.length;
+                node = this.resolve(extension.getChild());
+            } else {
+                if (k[offset] == 16) break;
+                node = this.resolve(((BranchNode) node).getChild(k[offset++]));
+            }
+        }
+        return proof;
+    }
+
+    /**
+     * Checks the value of the key against the root hash,
+     * no database is needed
+     *
+     * @param rootHash - root of the trie the proof was made for
+     * @param key
+     * @param proof - the encoded nodes from {@link #getProof(byte[])}
+     * @return the value, the empty array if the proof shows the key is not
+     *          in the trie or null if the proof doesn't match the root hash
+     */
+    public static byte[] verifyProof(byte[] rootHash, byte[] key, List<byte[]> proof) {
+        if (rootHash == null || rootHash.length == 0)
+            return ByteUtil.EMPTY_BYTE_ARRAY;
+
+        Map<ByteArrayWrapper, byte[]> nodes = new HashMap<>();
+        for (byte[] encoded : proof)
+            nodes.put(new ByteArrayWrapper(HashUtil.sha3(encoded)), encoded);
+
+        byte[] k = binToNibbles(key);
+        int offset = 0;
+        TrieNode node = new HashRef(rootHash);
+        while (true) {
+            if (node == null)
+                return ByteUtil.EMPTY_BYTE_ARRAY;
+            if (node instanceof HashRef) {
+                byte[] encoded = nodes.get(new ByteArrayWrapper(node.getHash()));
+                if (encoded == null) return null;
+                node = TrieNode.fromRlpEncoded(encoded);
+                if (node == null) return null;
+            }
+
+            if (node instanceof LeafNode) {
+                LeafNode leaf = (LeafNode) node;
+                byte[] leafKey = leaf.getKey();
+                if (offset + leafKey.length != k.length || matchingNibbleLength(k, offset, leafKey, 0) != leafKey.length)
+                    return ByteUtil.EMPTY_BYTE_ARRAY;
+                return leaf.getValue();
+            } else if (node instanceof ExtensionNode) {
+                ExtensionNode extension = (ExtensionNode) node;
+                byte[] extKey = extension.getKey();
+                if (matchingNibbleLength(k, offset, extKey, 0) != extKey.length)
+                    return ByteUtil.EMPTY_BYTE_ARRAY;
+                offset += extKey.length;
+                node = extension.getChild();
+            } else {
+                BranchNode branch = (BranchNode) node;
+                if (k[offset] == 16) {
+                    byte[] value = branch.getValue();
+                    return value == null ? ByteUtil.EMPTY_BYTE_ARRAY : value;
+                }
+                node = branch.getChild(k[offset++]);
+            }
+        }
     }
 
     /**
@@ -148,7 +283,7 @@ public class Trie implements TrieFacade {
      * @param key
      */
     public void delete(byte[] key) {
-        delete(new String(key));
+        this.update(key, ByteUtil.EMPTY_BYTE_ARRAY);
         if(logger.isDebugEnabled()) {
             logger.debug("Deleted value for key {}", Hex.toHexString(key));
             logger.debug("New root-hash: {}", Hex.toHexString(this.getRootHash()));
@@ -168,222 +303,254 @@ public class Trie implements TrieFacade {
      * 			Private functions			*
      ****************************************/
 
-    private Object get(Object node, byte[] key) {
-
-        // Return the node if key is empty (= found)
-        if (key.length == 0 || isEmptyNode(node)) {
-            return node;
-        }
-
-        Value currentNode = this.getNode(node);
-        if (currentNode == null) return null;
-
-        if (currentNode.length() == PAIR_SIZE) {
-            // Decode the key
-            byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
-            Object v = currentNode.get(1).asObj();
-
-            if (key.length >= k.length && Arrays.equals(k, copyOfRange(key, 0, k.length))) {
-                return this.get(v, copyOfRange(key, k.length, key.length));
-            } else {
-                return "";
-            }
+    /*
+     * The trie walk keeps the nibbles of the key in one array and
+     * moves the offset down the path instead of copying the rest
+     * of the key for every level. The nodes are immutable, every
+     * update creates new nodes along the path and reuses the
+     * untouched subtrees together with their encodings and hashes.
+     */
+    private byte[] get(TrieNode node, byte[] key, int offset) {
+
+        node = this.resolve(node);
+        if (node == null) return null;
+
+        if (node instanceof LeafNode) {
+            LeafNode leaf = (LeafNode) node;
+            byte[] k = leaf.getKey();
+            if (offset + k.length != key.length || matchingNibbleLength(key, offset, k, 0) != k.length) return null;
+            return leaf.getValue();
+        } else if (node instanceof ExtensionNode) {
+            ExtensionNode extension = (ExtensionNode) node;
+            byte[] k = extension.getKey();
+            if (matchingNibbleLength(key, offset, k, 0) != k.length) return null;
+            return this.get(extension.getChild(), key, offset + k.length);
         } else {
-            return this.get(currentNode.get(key[0]).asObj(), copyOfRange(key, 1, key.length));
+            BranchNode branch = (BranchNode) node;
+            if (key[offset] == 16) return branch.getValue();
+            return this.get(branch.getChild(key[offset]), key, offset + 1);
         }
     }
 
-    private Object insertOrDelete(Object node, byte[] key, byte[] value) {
+    private TrieNode insertOrDelete(TrieNode node, byte[] key, byte[] value) {
         if (value.length != 0) {
-            return this.insert(node, key, value);
+            return this.insert(node, key, 0, value);
         } else {
-            return this.delete(node, key);
+            return this.delete(node, key, 0);
         }
     }
 
     /**
      * Update or add the item inside a node
-     * return the updated node with rlp encoded
+     * return reference to the updated node
      */
-    private Object insert(Object node, byte[] key, Object value) {
+    private TrieNode insert(TrieNode node, byte[] key, int offset, byte[] value) {
 
-        if (key.length == 0) {
-            return value;
+        node = this.resolve(node);
+        if (node == null) {
+            return this.putToCache(new LeafNode(Arrays.copyOfRange(key, offset, key.length), value));
         }
 
-        if (isEmptyNode(node)) {
-            Object[] newNode = new Object[] { packNibbles(key), value };
-            return this.putToCache(newNode);
-        }
+        if (node instanceof BranchNode) {
+            BranchNode branch = (BranchNode) node;
+            int nibble = key[offset];
 
-        Value currentNode = this.getNode(node);
+            // Replace the value or the child of the first nibble in the key
+            if (nibble == 16)
+                return this.putToCache(branch.withValue(value));
+            return this.putToCache(branch.withChild(nibble, this.insert(branch.getChild(nibble), key, offset + 1, value)));
+        }
 
         // Check for "special" 2 slice type node
-        if (currentNode.length() == PAIR_SIZE) {
-            // Decode the key
-            byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
-            Object v = currentNode.get(1).asObj();
-
-            // Matching key pair (ie. there's already an object with this key)
-            if (Arrays.equals(k, key)) {
-                Object[] newNode = new Object[] {packNibbles(key), value};
-                return this.putToCache(newNode);
-            }
-
-            Object newHash;
-            int matchingLength = matchingNibbleLength(key, k);
-            if (matchingLength == k.length) {
-                // Insert the hash, creating a new node
-                byte[] remainingKeypart = copyOfRange(key, matchingLength, key.length);
-                newHash = this.insert(v, remainingKeypart, value);
-
-            } else {
-
-                // Expand the 2 length slice to a 17 length slice
-                // Create two nodes to putToCache into the new 17 length node
-                Object oldNode = this.insert("", copyOfRange(k, matchingLength+1, k.length), v);
-                Object newNode = this.insert("", copyOfRange(key, matchingLength+1, key.length), value);
+        byte[] k = node instanceof LeafNode ? ((LeafNode) node).getKey() : ((ExtensionNode) node).getKey();
+        int matchingLength = matchingNibbleLength(key, offset, k, 0);
 
-                // Create an expanded slice
-                Object[] scaledSlice = emptyStringSlice(17);
+        // Matching key pair (ie. there's already an object with this key)
+        if (matchingLength == k.length && offset + matchingLength == key.length) {
+            return this.putToCache(new LeafNode(k, value));
+        }
 
-                // Set the copied and new node
-                scaledSlice[k[matchingLength]] = oldNode;
-                scaledSlice[key[matchingLength]] = newNode;
-                newHash = this.putToCache(scaledSlice);
-            }
+        TrieNode newNode;
+        if (matchingLength == k.length) {
+            // Insert into the child, creating a new node
+            newNode = this.insert(((ExtensionNode) node).getChild(), key, offset + matchingLength, value);
+        } else {
+            // Expand the 2 length slice to a 17 length slice
+            BranchNode scaledSlice = new BranchNode();
+
+            // Set the copied and new node
+            if (node instanceof LeafNode)
+                scaledSlice = this.branchWith(scaledSlice, k, matchingLength, ((LeafNode) node).getValue());
+            else
+                scaledSlice = this.branchWith(scaledSlice, k, matchingLength, ((ExtensionNode) node).getChild());
+            scaledSlice = this.branchWith(scaledSlice, key, offset + matchingLength, value);
+            newNode = this.putToCache(scaledSlice);
+        }
 
-            if (matchingLength == 0) {
-                // End of the chain, return
-                return newHash;
-            } else {
-                Object[] newNode = new Object[] { packNibbles(copyOfRange(key, 0, matchingLength)), newHash};
-                return this.putToCache(newNode);
-            }
+        if (matchingLength == 0) {
+            // End of the chain, return
+            return newNode;
         } else {
+            return this.putToCache(new ExtensionNode(Arrays.copyOfRange(k, 0, matchingLength), newNode));
+        }
+    }
 
-            // Copy the current node over to the new node
-            Object[] newNode = copyNode(currentNode);
+    /* sets the value of the key path starting at [offset] on the branch */
+    private BranchNode branchWith(BranchNode branch, byte[] key, int offset, byte[] value) {
+        if (key[offset] == 16)
+            return branch.withValue(value);
+        LeafNode leaf = new LeafNode(Arrays.copyOfRange(key, offset + 1, key.length), value);
+        return branch.withChild(key[offset], this.putToCache(leaf));
+    }
 
-            // Replace the first nibble in the key
-            newNode[key[0]] = this.insert(currentNode.get(key[0]).asObj(), copyOfRange(key, 1, key.length), value);
-            return this.putToCache(newNode);
-        }
+    /* sets the child of the key path starting at [offset] on the branch */
+    private BranchNode branchWith(BranchNode branch, byte[] key, int offset, TrieNode child) {
+        if (offset + 1 == key.length)
+            return branch.withChild(key[offset], child);
+        ExtensionNode extension = new ExtensionNode(Arrays.copyOfRange(key, offset + 1, key.length), child);
+        return branch.withChild(key[offset], this.putToCache(extension));
     }
 
-    private Object delete(Object node, byte[] key) {
+    private TrieNode delete(TrieNode node, byte[] key, int offset) {
 
-        if (key.length == 0 || isEmptyNode(node)) {
-            return "";
+        TrieNode currentNode = this.resolve(node);
+        if (currentNode == null) {
+            return null;
         }
 
-        // New node
-        Value currentNode = this.getNode(node);
-        // Check for "special" 2 slice type node
-        if (currentNode.length() == PAIR_SIZE) {
-            // Decode the key
-            byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
-            Object v = currentNode.get(1).asObj();
+        if (currentNode instanceof LeafNode) {
+            byte[] k = ((LeafNode) currentNode).getKey();
+            int matchingLength = matchingNibbleLength(key, offset, k, 0);
 
             // Matching key pair (ie. there's already an object with this key)
-            if (Arrays.equals(k, key)) {
-                return "";
-            } else if (Arrays.equals(copyOfRange(key, 0, k.length), k)) {
-                Object hash = this.delete(v, copyOfRange(key, k.length, key.length));
-                Value child = this.getNode(hash);
-
-                Object newNode;
-                if (child.length() == PAIR_SIZE) {
-                    byte[] newKey = concatenate(k, unpackToNibbles(child.get(0).asBytes()));
-                    newNode = new Object[] {packNibbles(newKey), child.get(1).asObj()};
-                } else {
-                    newNode = new Object[] {currentNode.get(0).asString(), hash};
-                }
-                return this.putToCache(newNode);
-            } else {
+            if (matchingLength == k.length && offset + matchingLength == key.length) {
+                return null;
+            }
+            return node;
+        } else if (currentNode instanceof ExtensionNode) {
+            ExtensionNode extension = (ExtensionNode) currentNode;
+            byte[] k = extension.getKey();
+            int matchingLength = matchingNibbleLength(key, offset, k, 0);
+            if (matchingLength != k.length) {
                 return node;
             }
+
+            TrieNode newChild = this.delete(extension.getChild(), key, offset + k.length);
+            if (newChild == extension.getChild()) {
+                return node;
+            }
+            return this.putToCache(this.prefixed(k, newChild));
         } else {
-            // Copy the current node over to a new node
-            Object[] itemList = copyNode(currentNode);
+            BranchNode branch = (BranchNode) currentNode;
+            int nibble = key[offset];
 
             // Replace the first nibble in the key
-            itemList[key[0]] = this.delete(itemList[key[0]], copyOfRange(key, 1, key.length));
-
-            byte amount = -1;
-            for (byte i = 0; i < LIST_SIZE; i++) {
-                if (itemList[i] != "") {
-                    if (amount == -1) {
-                        amount = i;
-                    } else {
-                        amount = -2;
-                    }
-                }
+            BranchNode newNode;
+            if (nibble == 16) {
+                if (branch.getValue() == null) return node;
+                newNode = branch.withValue(null);
+            } else {
+                TrieNode newChild = this.delete(branch.getChild(nibble), key, offset + 1);
+                if (newChild == branch.getChild(nibble)) return node;
+                newNode = branch.withChild(nibble, newChild);
             }
 
-            Object[] newNode = null;
-            if (amount == 16) {
-                newNode = new Object[] { packNibbles(new byte[] {16} ), itemList[amount]};
-            } else if (amount >= 0) {
-                Value child = this.getNode(itemList[amount]);
-                if (child.length() == PAIR_SIZE) {
-                    key = concatenate(new byte[]{amount}, unpackToNibbles(child.get(0).asBytes()));
-                    newNode = new Object[] {packNibbles(key), child.get(1).asObj()};
-                } else if (child.length() == LIST_SIZE) {
-                    newNode = new Object[] { packNibbles(new byte[]{amount}), itemList[amount]};
-                }
-            } else {
-                newNode = itemList;
+            if (newNode.countItems() > 1) {
+                return this.putToCache(newNode);
             }
-            return this.putToCache(newNode);
+
+            // Only one item left, collapse the branch
+            if (newNode.getValue() != null) {
+                return this.putToCache(new LeafNode(new byte[] {16}, newNode.getValue()));
+            }
+            for (byte i = 0; i < 16; ++i) {
+                if (newNode.getChild(i) != null)
+                    return this.putToCache(this.prefixed(new byte[] {i}, newNode.getChild(i)));
+            }
+            return null;
+        }
+    }
+
+    /* the node reached by the key path [k], merged with the child pair node */
+    private TrieNode prefixed(byte[] k, TrieNode child) {
+        TrieNode node = this.resolve(child);
+        if (node instanceof LeafNode) {
+            LeafNode leaf = (LeafNode) node;
+            return new LeafNode(concatenate(k, leaf.getKey()), leaf.getValue());
+        } else if (node instanceof ExtensionNode) {
+            ExtensionNode extension = (ExtensionNode) node;
+            return new ExtensionNode(concatenate(k, extension.getKey()), extension.getChild());
+        } else {
+            return new ExtensionNode(k, child);
         }
     }
 
     /**
      * Helper method to retrieve the actual node
-     * If the node is not a list and length is > 32
-     * bytes get the actual node from the db
+     * If the node is referenced by the hash get
+     * the actual node from the cache or the db
      *
      * @param node -
      * @return
      */
-    private Value getNode(Object node) {
-
-        Value val = new Value(node);
-
-        // in that case we got a node
-        // so no need to encode it
-        if (!val.isBytes()) {
-            return val;
+    private TrieNode resolve(TrieNode node) {
+        if (node instanceof HashRef) {
+            return this.cache.get(node.getHash());
         }
+        return node;
+    }
 
-        byte[] keyBytes = val.asBytes();
-        if (keyBytes.length == 0) {
-            return val;
-        } else if (keyBytes.length < 32) {
-            return new Value(keyBytes);
+    /* resolves the node, without the cache the node read from the db isn't cached */
+    TrieNode load(TrieNode node, boolean useCache) {
+        if (node instanceof HashRef) {
+            return useCache ? this.cache.get(node.getHash()) : this.cache.peek(node.getHash());
         }
-        return this.cache.get(keyBytes);
+        return node;
     }
 
-    private Object putToCache(Object node) {
+    private TrieNode putToCache(TrieNode node) {
+        if (lazyHash) {
+            ++dirtyNodes;
+            return node;
+        }
         return this.cache.put(node);
     }
 
-    private boolean isEmptyNode(Object node) {
-        Value n = new Value(node);
-        return (node == null || (n.isString() && (n.asString() == "" || n.get(0).isNull())) || n.length() == 0);
-    }
-
-    private Object[] copyNode(Value currentNode) {
-        Object[] itemList = emptyStringSlice(LIST_SIZE);
-        for (int i = 0; i < LIST_SIZE; i++) {
-            Object cpy = currentNode.get(i).asObj();
-            if (cpy != null) {
-                itemList[i] = cpy;
+    /*
+     * Moves the new nodes kept in memory by the lazy mode to the
+     * cache, the stored node refers to its children by the hash
+     */
+    private void storeNodes() {
+        if (lazyHash) this.root = this.store(this.root);
+    }
+
+    private TrieNode store(TrieNode node) {
+
+        if (node == null || node instanceof HashRef) return node;
+
+        TrieNode stored = node;
+        if (node instanceof ExtensionNode) {
+            ExtensionNode extension = (ExtensionNode) node;
+            TrieNode child = this.store(extension.getChild());
+            if (child != extension.getChild())
+                stored = new ExtensionNode(extension.getKey(), child).withEncodingOf(node);
+        } else if (node instanceof BranchNode) {
+            BranchNode branch = (BranchNode) node;
+            TrieNode[] children = null;
+            for (int i = 0; i < 16; ++i) {
+                TrieNode child = this.store(branch.getChild(i));
+                if (child == branch.getChild(i)) continue;
+                if (children == null) {
+                    children = new TrieNode[16];
+                    for (int j = 0; j < 16; ++j)
+                        children[j] = branch.getChild(j);
+                }
+                children[i] = child;
             }
+            if (children != null)
+                stored = new BranchNode(children, branch.getValue()).withEncodingOf(node);
         }
-        return itemList;
+        return this.cache.put(stored);
     }
 
     // Simple compare function which compared the tries based on their stateRoot
@@ -393,22 +560,30 @@ public class Trie implements TrieFacade {
 
     // Save the cached value to the database.
     public void sync() {
+        this.storeNodes();
         this.cache.commit();
         this.prevRoot = this.root;
     }
 
     public void undo() {
+        this.dirtyNodes = 0;
         this.cache.undo();
         this.root = this.prevRoot;
     }
 
-    // Returns a copy of this trie
+    /**
+     * Returns a copy of this trie, the nodes are immutable so the copy
+     * shares the root with this trie instead of copying the nodes,
+     * only the dirty nodes of the cache are copied
+     */
     public Trie copy() {
-        Trie trie = new Trie(this.cache.getDb(), this.root);
-        for (ByteArrayWrapper key : this.cache.getNodes().keySet()) {
-            Node node = this.cache.getNodes().get(key);
-            trie.cache.getNodes().put(key, node.copy());
-        }
+        Trie trie = new Trie(this.cache.getDb());
+        trie.cache = this.cache.copy();
+        trie.lazyHash = this.lazyHash;
+        trie.dirtyNodes = this.dirtyNodes;
+        trie.parallelHashThreshold = this.parallelHashThreshold;
+        trie.root = this.root;
+        trie.prevRoot = this.prevRoot;
         return trie;
     }
 
@@ -416,26 +591,21 @@ public class Trie implements TrieFacade {
      *  	Utility functions		*
      *******************************/
 
-    // Created an array of empty elements of required length
-    private Object[] emptyStringSlice(int l) {
-        Object[] slice = new Object[l];
-        for (int i = 0; i < l; i++) {
-            slice[i] = "";
-        }
-        return slice;
+    private static TrieNode toRoot(byte[] rootHash) {
+        if (rootHash == null || rootHash.length == 0)
+            return null;
+        return new HashRef(rootHash);
     }
 
     public byte[] getRootHash() {
-        if (root == null
-                || (root instanceof byte[] && ((byte[]) root).length == 0)
-                || (root instanceof String && "".equals((String) root))) {
+        if (root == null) {
             return ByteUtil.EMPTY_BYTE_ARRAY;
-        } else if (root instanceof byte[]) {
-            return (byte[]) this.getRoot();
         } else {
-            Value rootValue = new Value(this.getRoot());
-            byte[] val = rootValue.encode();
-            return HashUtil.sha3(val);
+            // hash the big set of changes by all the cores
+            if (parallelHashThreshold > 0 && dirtyNodes >= parallelHashThreshold)
+                ParallelHasher.hash(root);
+            dirtyNodes = 0;
+            return root.getHash();
         }
     }
 
@@ -451,59 +621,113 @@ public class Trie implements TrieFacade {
         CollectFullSetOfNodes collectAction = new CollectFullSetOfNodes();
         long startTime = System.currentTimeMillis();
 
+        this.storeNodes();
         this.scanTree(this.getRootHash(), collectAction);
 
-        Set<byte[]> hashSet = collectAction.getCollectedHashes();
-        Map<ByteArrayWrapper, Node> nodes =  this.getCache().getNodes();
-        Set<ByteArrayWrapper> toRemoveSet = new HashSet<>();
+        Set<ByteArrayWrapper> hashSet = collectAction.getCollectedHashes();
+        Map<byte[], Node> nodes =  this.getCache().getNodes();
+        List<byte[]> toRemoveSet = new ArrayList<>();
 
-        for (ByteArrayWrapper key : nodes.keySet()) {
-            if (!hashSet.contains(key.getData())) {
-                toRemoveSet.add(key);
+        synchronized (nodes) {
+            for (byte[] key : nodes.keySet()) {
+                if (!hashSet.contains(new ByteArrayWrapper(key))) {
+                    toRemoveSet.add(key);
+                }
             }
         }
 
-        for (ByteArrayWrapper key : toRemoveSet) {
+        for (byte[] key : toRemoveSet) {
 
-            this.getCache().delete(key.getData());
+            this.getCache().delete(key);
 
             if (logger.isTraceEnabled())
                 logger.trace("Garbage collected node: [ {} ]",
-                        Hex.toHexString( key.getData() ));
+                        Hex.toHexString( key ));
         }
         logger.info("Garbage collected node list, size: [ {} ]", toRemoveSet.size());
         logger.info("Garbage collection time: [ {}ms ]", System.currentTimeMillis() - startTime);
     }
 
+    /**
+     * Visits the nodes referenced by hash, the children before the
+     * parent. The nodes are walked by a stack and the nodes read
+     * from the db are not put to the cache.
+     */
     public void scanTree(byte[] hash, ScanAction scanAction) {
 
-        Value node = this.getCache().get(hash);
-        if (node == null) return;
-
-        if (node.isList()) {
-            List<Object> siblings =  node.asList();
-            if (siblings.size() == PAIR_SIZE) {
-                Value val = new Value(siblings.get(1));
-                if (val.isHashCode())
-                    scanTree(val.asBytes(), scanAction);
+        TrieNode root = this.getCache().peek(hash);
+        if (root == null) return;
+
+        Deque<ScanFrame> stack = new ArrayDeque<>();
+        stack.push(new ScanFrame(hash, root));
+        while (!stack.isEmpty()) {
+            ScanFrame frame = stack.peek();
+            TrieNode child = frame.nextChild();
+            if (child == null) {
+                stack.pop();
+                scanAction.doOnNode(frame.hash, frame.node);
             } else {
-                for (int j = 0; j < LIST_SIZE; ++j) {
-                    Value val = new Value(siblings.get(j));
-                    if (val.isHashCode())
-                        scanTree(val.asBytes(), scanAction);
+                TrieNode node = this.getCache().peek(child.getHash());
+                if (node != null)
+                    stack.push(new ScanFrame(child.getHash(), node));
+            }
+        }
+    }
+
+    private static class ScanFrame {
+
+        final byte[] hash;
+        final TrieNode node;
+        int child;
+
+        ScanFrame(byte[] hash, TrieNode node) {
+            this.hash = hash;
+            this.node = node;
+        }
+
+        /* the next child referenced by hash or null */
+        TrieNode nextChild() {
+            if (node instanceof ExtensionNode) {
+                TrieNode next = child++ == 0 ? ((ExtensionNode) node).getChild() : null;
+                return next instanceof HashRef ? next : null;
+            } else if (node instanceof BranchNode) {
+                while (child < 16) {
+                    TrieNode next = ((BranchNode) node).getChild(child++);
+                    if (next instanceof HashRef) return next;
                 }
             }
-            scanAction.doOnNode(hash, node);
+            return null;
         }
     }
 
+    /**
+     * Walks all the key/value pairs of the trie in the order of the keys,
+     * the nodes read from the db are not put to the cache
+     */
+    public void scanValues(ValueAction valueAction) {
+        TrieIterator iterator = this.getIterator(ByteUtil.EMPTY_BYTE_ARRAY, false);
+        while (iterator.hasNext()) {
+            Map.Entry<byte[], byte[]> entry = iterator.next();
+            valueAction.doOnValue(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /* the key of the nibbles path, the terminator is dropped */
+    static byte[] nibblesToBin(byte[] nibbles) {
+        byte[] key = new byte[nibbles.length / 2];
+        for (int i = 0; i < key.length; ++i)
+            key[i] = (byte) ((nibbles[2 * i] << 4) | nibbles[2 * i + 1]);
+        return key;
+    }
+
     public String getTrieDump() {
 
         String root = "";
         TraceAllNodes traceAction = new TraceAllNodes();
+        this.storeNodes();
         this.scanTree(this.getRootHash(), traceAction);
 
-        if (this.getRoot() instanceof Value) {
+        if (this.getRoot() != null && this.getRoot().isEmbedded()) {
             root = "root: " + Hex.toHexString(getRootHash()) +  " => " + this.getRoot() +  "\n";
         } else {
             root = "root: " + Hex.toHexString(getRootHash()) + "\n";
@@ -512,6 +736,10 @@ public class Trie implements TrieFacade {
     }
 
     public interface ScanAction {
-        public void doOnNode(byte[] hash, Value node);
+        public void doOnNode(byte[] hash, TrieNode node);
+    }
+
+    public interface ValueAction {
+        public void doOnValue(byte[] key, byte[] value);
     }
 }
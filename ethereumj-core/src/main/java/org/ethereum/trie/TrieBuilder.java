@@ -0,0 +1,198 @@
+package org.ethereum.trie;
+
+import static org.ethereum.util.ByteUtil.matchingNibbleLength;
+import static org.ethereum.util.CompactEncoder.binToNibbles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.db.KeyValueStore;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds a trie from the keys added in the ascending order, each node
+ * is created once, when no later key can change it, and the nodes
+ * referenced by hash are written to the db right away. Only the
+ * branches on the path of the last key are kept in memory.
+ *
+ * The root is the same as the root of a {@link Trie} updated by
+ * the same keys and values:
+ *
+ * 	TrieBuilder builder = new TrieBuilder(db);
+ * 	for (...) builder.add(key, value);
+ * 	Trie trie = new Trie(db, builder.build());
+ */
+public class TrieBuilder {
+
+    private static Logger logger = LoggerFactory.getLogger("trie");
+
+    /* number of the nodes written by one batch */
+    private static final int BATCH_NODES = 10000;
+
+    private final KeyValueStore db;
+    private final Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+
+    /* the branches on the path of the last key, the deepest on the top */
+    private final List<OpenBranch> branches = new ArrayList<>();
+
+    /* the last key, its leaf is created by the next key */
+    private byte[] lastKey;
+    private byte[] lastNibbles;
+    private byte[] lastValue;
+
+    private long keys;
+    private long writtenNodes;
+
+    public TrieBuilder(KeyValueStore db) {
+        this.db = db;
+    }
+
+    /**
+     * @param key - greater than the previous key
+     * @param value - the empty value is skipped
+     */
+    public void add(byte[] key, byte[] value) {
+        if (value == null || value.length == 0)
+            return;
+        if (lastKey != null && FastByteComparisons.compareTo(lastKey, 0, lastKey.length, key, 0, key.length) >= 0)
+            throw new IllegalArgumentException("The keys must be added in the ascending order");
+
+        byte[] nibbles = binToNibbles(key);
+        if (lastKey != null) {
+            // the branches below the common prefix are complete
+            int depth = matchingNibbleLength(lastNibbles, 0, nibbles, 0);
+            Pending pending = new Pending(lastNibbles, lastValue);
+            while (!branches.isEmpty() && top().depth > depth)
+                pending = close(pending);
+
+            if (branches.isEmpty() || top().depth < depth)
+                branches.add(new OpenBranch(depth));
+            top().attach(pending);
+        }
+        lastKey = key;
+        lastNibbles = nibbles;
+        lastValue = value;
+        ++keys;
+    }
+
+    /**
+     * Writes the remaining nodes
+     *
+     * @return the root hash, empty if no key was added
+     */
+    public byte[] build() {
+        if (lastKey == null)
+            return ByteUtil.EMPTY_BYTE_ARRAY;
+
+        Pending pending = new Pending(lastNibbles, lastValue);
+        while (!branches.isEmpty())
+            pending = close(pending);
+
+        // the root is kept by hash even when it is short
+        TrieNode root = pending.toNode(-1);
+        write(root);
+        db.write(batch);
+        batch.clear();
+
+        logger.debug("Trie built: keys [ {} ] nodes written [ {} ]", keys, writtenNodes);
+        lastKey = null;
+        return root.getHash();
+    }
+
+    public long getWrittenNodes() {
+        return writtenNodes;
+    }
+
+    private OpenBranch top() {
+        return branches.get(branches.size() - 1);
+    }
+
+    /* attaches the pending node to the top branch and creates the branch */
+    private Pending close(Pending pending) {
+        OpenBranch branch = branches.remove(branches.size() - 1);
+        branch.attach(pending);
+        return new Pending(pending.nibbles, branch.depth, new BranchNode(branch.children, branch.value));
+    }
+
+    /* the node is referenced by hash unless it is embedded */
+    private TrieNode reference(TrieNode node) {
+        if (node.isEmbedded())
+            return node;
+        write(node);
+        return new HashRef(node.getHash());
+    }
+
+    private void write(TrieNode node) {
+        batch.put(new ByteArrayWrapper(node.getHash()), node.getEncoded());
+        ++writtenNodes;
+        if (batch.size() >= BATCH_NODES) {
+            db.write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * The leaf of a key or a complete branch, its path is
+     * known only when it is attached to the parent branch
+     */
+    private class Pending {
+
+        /* nibbles of a key below the node */
+        final byte[] nibbles;
+        /* depth of the branch, the leaf has no branch */
+        final int depth;
+        final BranchNode branch;
+        final byte[] value;
+
+        Pending(byte[] nibbles, byte[] value) {
+            this.nibbles = nibbles;
+            this.depth = -1;
+            this.branch = null;
+            this.value = value;
+        }
+
+        Pending(byte[] nibbles, int depth, BranchNode branch) {
+            this.nibbles = nibbles;
+            this.depth = depth;
+            this.branch = branch;
+            this.value = null;
+        }
+
+        /* the node starting after the nibble of the parent at parentDepth */
+        TrieNode toNode(int parentDepth) {
+            int from = parentDepth + 1;
+            if (branch == null)
+                return new LeafNode(Arrays.copyOfRange(nibbles, from, nibbles.length), value);
+            if (depth == from)
+                return branch;
+            return new ExtensionNode(Arrays.copyOfRange(nibbles, from, depth), reference(branch));
+        }
+    }
+
+    private class OpenBranch {
+
+        /* the nibble at this depth selects the child */
+        final int depth;
+        final TrieNode[] children = new TrieNode[16];
+        byte[] value;
+
+        OpenBranch(int depth) {
+            this.depth = depth;
+        }
+
+        void attach(Pending pending) {
+            int nibble = pending.nibbles[depth];
+            if (nibble == 16)
+                value = pending.value;
+            else
+                children[nibble] = reference(pending.toNode(depth));
+        }
+    }
+}
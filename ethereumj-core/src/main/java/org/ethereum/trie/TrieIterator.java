@@ -1,90 +1,189 @@
 package org.ethereum.trie;
 
-import java.util.List;
+import static org.ethereum.util.CompactEncoder.binToNibblesNoTerminator;
+import static org.spongycastle.util.Arrays.concatenate;
 
-import org.ethereum.util.Value;
-import static org.ethereum.util.CompactEncoder.unpackToNibbles;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
-/*
+import org.ethereum.util.ByteUtil;
+
+/**
+ * Iterates the key/value pairs of the trie in the order of the keys.
+ * The nodes are walked by a stack instead of the recursion, only the
+ * nodes on the path of the current key are held, so the memory is
+ * bounded by the depth of the trie.
+ *
+ * The iteration may be limited to the keys starting by a prefix and
+ * may bypass the cache: the nodes which are not in the cache are read
+ * from the db and are not added to the cache, so a full scan doesn't
+ * push the hot nodes out of it.
+ *
+ * The trie shouldn't be changed during the iteration.
+ *
  * www.ethereumJ.com
  * @author: Nick Savers
  * Created on: 20/05/2014 10:44
  */
-public class TrieIterator {
-	
-	private Trie trie;
-	private String key;
-	private String value;
+public class TrieIterator implements Iterator<Map.Entry<byte[], byte[]>> {
+
+	private final Trie trie;
+	private final boolean useCache;
 
-	private List<byte[]> shas;
-	private List<String> values;
+	/* the nodes to visit, the next one on the top */
+	private final Deque<Frame> stack = new ArrayDeque<>();
+	private Map.Entry<byte[], byte[]> next;
+
+	public TrieIterator(Trie trie) {
+		this(trie, ByteUtil.EMPTY_BYTE_ARRAY, true);
+	}
 
-	public TrieIterator(Trie t) {
-		this.trie = t;
+	/**
+	 * @param trie
+	 * @param prefix - only the keys starting by the prefix are returned
+	 * @param useCache - false reads the missing nodes from the db without caching them
+	 */
+	public TrieIterator(Trie trie, byte[] prefix, boolean useCache) {
+		this.trie = trie;
+		this.useCache = useCache;
+		seek(binToNibblesNoTerminator(prefix));
 	}
 
-	// Some time in the near future this will need refactoring :-)
-	// XXX Note to self, IsSlice == inline node. Str == sha3 to node
-	private void workNode(Value currentNode) {
-		if (currentNode.length() == 2) {
-			byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
+	/* finds the node covering all the keys of the prefix */
+	private void seek(byte[] prefix) {
+		TrieNode node = load(trie.getRoot());
+		int offset = 0;
+		while (node != null) {
+			byte[] path = Arrays.copyOf(prefix, offset);
+			int remaining = prefix.length - offset;
 
-			if (currentNode.get(1).asString() == "") {
-				this.workNode(currentNode.get(1));
+			if (node instanceof LeafNode) {
+				byte[] key = ((LeafNode) node).getKey();
+				if (startsWith(key, prefix, offset, remaining))
+					stack.push(new Frame(node, path));
+				return;
+			} else if (node instanceof ExtensionNode) {
+				byte[] key = ((ExtensionNode) node).getKey();
+				if (remaining <= key.length) {
+					if (startsWith(key, prefix, offset, remaining))
+						stack.push(new Frame(node, path));
+					return;
+				}
+				if (!startsWith(prefix, offset, key))
+					return;
+				offset += key.length;
+				node = load(((ExtensionNode) node).getChild());
 			} else {
-				if (k[k.length-1] == 16) {
-					this.values.add( currentNode.get(1).asString() );
-				} else {
-					this.shas.add(currentNode.get(1).asBytes());
-					this.getNode(currentNode.get(1).asBytes());
+				if (remaining == 0) {
+					stack.push(new Frame(node, path));
+					return;
 				}
+				node = load(((BranchNode) node).getChild(prefix[offset++]));
 			}
-		} else {
-			for (int i = 0; i < currentNode.length(); i++) {
-				if (i == 16 && currentNode.get(i).length() != 0) {
-					this.values.add( currentNode.get(i).asString() );
+		}
+	}
+
+	/* key starts by prefix[offset, offset + length) */
+	private static boolean startsWith(byte[] key, byte[] prefix, int offset, int length) {
+		if (key.length < length) return false;
+		for (int i = 0; i < length; ++i)
+			if (key[i] != prefix[offset + i]) return false;
+		return true;
+	}
+
+	/* prefix from offset starts by the key */
+	private static boolean startsWith(byte[] prefix, int offset, byte[] key) {
+		for (int i = 0; i < key.length; ++i)
+			if (prefix[offset + i] != key[i]) return false;
+		return true;
+	}
+
+	private TrieNode load(TrieNode node) {
+		return trie.load(node, useCache);
+	}
+
+	private Map.Entry<byte[], byte[]> advance() {
+		while (!stack.isEmpty()) {
+			Frame frame = stack.peek();
+
+			if (frame.node instanceof LeafNode) {
+				stack.pop();
+				LeafNode leaf = (LeafNode) frame.node;
+				return entry(concatenate(frame.path, leaf.getKey()), leaf.getValue());
+			} else if (frame.node instanceof ExtensionNode) {
+				stack.pop();
+				ExtensionNode extension = (ExtensionNode) frame.node;
+				push(extension.getChild(), concatenate(frame.path, extension.getKey()));
+			} else {
+				BranchNode branch = (BranchNode) frame.node;
+				if (frame.child < 0) {
+					frame.child = 0;
+					if (branch.getValue() != null)
+						return entry(frame.path, branch.getValue());
+				}
+				while (frame.child < 16 && branch.getChild(frame.child) == null)
+					++frame.child;
+				if (frame.child == 16) {
+					stack.pop();
 				} else {
-					if (currentNode.get(i).asString() == "") {
-						this.workNode(currentNode.get(i));
-					} else {
-						String val = currentNode.get(i).asString();
-						if (val != "") {
-							this.shas.add(currentNode.get(1).asBytes());
-							this.getNode(val.getBytes());
-						}
-					}
+					byte nibble = (byte) frame.child++;
+					push(branch.getChild(nibble), concatenate(frame.path, new byte[] {nibble}));
 				}
 			}
 		}
+		return null;
 	}
 
-	private void getNode(byte[] node) {
-		Value currentNode = this.trie.getCache().get(node);
-		this.workNode(currentNode);
+	private void push(TrieNode child, byte[] path) {
+		TrieNode node = load(child);
+		if (node != null)
+			stack.push(new Frame(node, path));
 	}
 
-	private List<byte[]> collect() {
-		if (this.trie.getRoot() == "") {
-			return null;
-		}
-		this.getNode(new Value(this.trie.getRoot()).asBytes());
-		return this.shas;
+	private static Map.Entry<byte[], byte[]> entry(byte[] nibbles, byte[] value) {
+		return new AbstractMap.SimpleImmutableEntry<>(Trie.nibblesToBin(nibbles), value);
 	}
 
-	public int purge() {
-		List<byte[]> shas = this.collect();
-			
-		for (byte[] sha : shas) {
-			this.trie.getCache().delete(sha);	
-		}
-		return this.values.size();
+	@Override
+	public boolean hasNext() {
+		if (next == null)
+			next = advance();
+		return next != null;
+	}
+
+	/**
+	 * @return the key and the value
+	 */
+	@Override
+	public Map.Entry<byte[], byte[]> next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Map.Entry<byte[], byte[]> entry = next;
+		next = null;
+		return entry;
 	}
 
-	private String getKey() {
-		return "";
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("The trie is changed by delete()");
 	}
 
-	private String getValue() {
-		return "";
+	private static class Frame {
+
+		final TrieNode node;
+		/* nibbles of the path to the node */
+		final byte[] path;
+		/* next child of the branch, -1 before the value */
+		int child = -1;
+
+		Frame(TrieNode node, byte[] path) {
+			this.node = node;
+			this.path = path;
+		}
 	}
 }
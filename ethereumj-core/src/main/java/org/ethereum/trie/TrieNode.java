@@ -0,0 +1,148 @@
+package org.ethereum.trie;
+
+import static org.ethereum.util.CompactEncoder.unpackToNibbles;
+
+import java.util.Arrays;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.util.RLP;
+import org.ethereum.util.Value;
+
+/**
+ * Immutable node of the Merkle Patricia tree, one of:
+ *
+ * 	- {@link LeafNode} [ key, value ], key terminated by 16
+ * 	- {@link ExtensionNode} [ key, child ]
+ * 	- {@link BranchNode} [ v0 ... v15, vt ]
+ * 	- {@link HashRef} the hash of a node which is kept in the cache/db
+ *
+ * The RLP encoding and the sha3 hash of a node are computed once and
+ * kept with the node, so a subtree which didn't change is never
+ * encoded or hashed again and the traversal never decodes RLP.
+ *
+ * Where a node is referenced inside a node, what is included is
+ * the hash if the encoding is 32 bytes or longer, otherwise the
+ * node itself is embedded into the parent.
+ */
+public abstract class TrieNode {
+
+    /* RLP encoding of the empty reference / value */
+    static final byte[] EMPTY_ELEMENT = RLP.encode(new byte[0]);
+
+    private byte[] encoded;
+    private byte[] hash;
+
+    protected abstract byte[] encode();
+
+    public byte[] getEncoded() {
+        if (encoded == null)
+            encoded = encode();
+        return encoded;
+    }
+
+    /**
+     * @return true if the encoding of the node is computed already
+     */
+    boolean isEncoded() {
+        return encoded != null;
+    }
+
+    public byte[] getHash() {
+        if (hash == null)
+            hash = HashUtil.sha3(getEncoded());
+        return hash;
+    }
+
+    /**
+     * @return true if the node is included into the parent
+     *          instead of being referenced by the hash
+     */
+    public boolean isEmbedded() {
+        return getEncoded().length < 32;
+    }
+
+    /**
+     * @return RLP item the parent uses to refer to this node
+     */
+    public byte[] getReference() {
+        return isEmbedded() ? getEncoded() : RLP.encode(getHash());
+    }
+
+    /**
+     * Take over the encoding and the hash of the equal node,
+     * used when the children are replaced by their references
+     */
+    TrieNode withEncodingOf(TrieNode node) {
+        this.encoded = node.encoded;
+        this.hash = node.hash;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return Value.fromRlpEncoded(getEncoded()).toString();
+    }
+
+    static byte[] reference(TrieNode node) {
+        return node == null ? EMPTY_ELEMENT : node.getReference();
+    }
+
+    static byte[] encodeList(byte[]... items) {
+        int length = 0;
+        for (byte[] item : items)
+            length += item.length;
+
+        byte[] prefix = RLP.encodeLength(length, 0xc0);
+        byte[] data = Arrays.copyOf(prefix, prefix.length + length);
+        int pos = prefix.length;
+        for (byte[] item : items) {
+            System.arraycopy(item, 0, data, pos, item.length);
+            pos += item.length;
+        }
+        return data;
+    }
+
+    /**
+     * Decode the node from its RLP encoding
+     *
+     * @param data - RLP encoded node
+     * @return the node or null for the empty data
+     */
+    public static TrieNode fromRlpEncoded(byte[] data) {
+        if (data == null || data.length == 0)
+            return null;
+        return fromDecoded(RLP.decode(data, 0).getDecoded());
+    }
+
+    private static TrieNode fromDecoded(Object decoded) {
+        Object[] items = (Object[]) decoded;
+
+        if (items.length == 2) {
+            byte[] key = unpackToNibbles(toBytes(items[0]));
+            if (key[key.length - 1] == 16)
+                return new LeafNode(key, toBytes(items[1]));
+            else
+                return new ExtensionNode(key, fromReference(items[1]));
+        } else {
+            TrieNode[] children = new TrieNode[16];
+            for (int i = 0; i < 16; ++i)
+                children[i] = fromReference(items[i]);
+            byte[] value = toBytes(items[16]);
+            return new BranchNode(children, value.length == 0 ? null : value);
+        }
+    }
+
+    private static TrieNode fromReference(Object item) {
+        if (item instanceof Object[])
+            return fromDecoded(item);
+
+        byte[] hash = toBytes(item);
+        return hash.length == 0 ? null : new HashRef(hash);
+    }
+
+    private static byte[] toBytes(Object item) {
+        if (item instanceof byte[])
+            return (byte[]) item;
+        return item.toString().getBytes();
+    }
+}
@@ -0,0 +1,307 @@
+package org.ethereum.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map keyed by the content of the byte arrays without wrapping them,
+ * the lookup allocates nothing. The keys and the values are kept
+ * side by side in one open addressing table probed linearly, the
+ * hash is mixed from the key read by 8 bytes, so the 32 byte hash
+ * takes 4 steps. The table is allocated by the first put, a small
+ * map costs a single array.
+ *
+ * The key arrays are kept by reference and shouldn't be changed
+ * while they are in the map. The map is not thread safe.
+ */
+public class ByteArrayMap<V> extends AbstractMap<byte[], V> {
+
+    /* marks the slot of a removed key, the probing goes on over it */
+    private static final byte[] REMOVED = new byte[0];
+
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+
+    /* key at 2 * slot, value at 2 * slot + 1 */
+    private Object[] table;
+    private int capacity;
+    private int size;
+    /* the slots taken by the keys and by the removed marks */
+    private int used;
+    private int modCount;
+
+    private EntrySet entrySet;
+
+    public ByteArrayMap() {
+        this(4);
+    }
+
+    public ByteArrayMap(int expectedSize) {
+        capacity = 8;
+        while (capacity * 2 <= expectedSize * 3)
+            capacity <<= 1;
+    }
+
+    public ByteArrayMap(Map<byte[], ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    private static int hash(byte[] key) {
+        long h = key.length;
+        int i = 0;
+        for (; i + 8 <= key.length; i += 8)
+            h = (h ^ readLong(key, i)) * MIX;
+        for (; i < key.length; ++i)
+            h = (h ^ (key[i] & 0xFF)) * MIX;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long readLong(byte[] b, int off) {
+        return ((long) b[off] << 56) | ((long) (b[off + 1] & 0xFF) << 48)
+                | ((long) (b[off + 2] & 0xFF) << 40) | ((long) (b[off + 3] & 0xFF) << 32)
+                | ((long) (b[off + 4] & 0xFF) << 24) | ((b[off + 5] & 0xFF) << 16)
+                | ((b[off + 6] & 0xFF) << 8) | (b[off + 7] & 0xFF);
+    }
+
+    /* slot of the key or -1 */
+    private int find(byte[] key) {
+        if (table == null) return -1;
+
+        int mask = capacity - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object k = table[i << 1];
+            if (k == null)
+                return -1;
+            if (k != REMOVED && Arrays.equals((byte[]) k, key))
+                return i;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof byte[] && find((byte[]) key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (!(key instanceof byte[])) return null;
+        int i = find((byte[]) key);
+        return i < 0 ? null : (V) table[(i << 1) + 1];
+    }
+
+    /**
+     * The key array is kept by reference, not copied, the caller
+     * shouldn't change it while the key is in the map
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(byte[] key, V value) {
+        if (key == null)
+            throw new NullPointerException("The key is null");
+        if (table == null)
+            table = new Object[capacity << 1];
+
+        int mask = capacity - 1;
+        int free = -1;
+        int i = hash(key) & mask;
+        for (; table[i << 1] != null; i = (i + 1) & mask) {
+            Object k = table[i << 1];
+            if (k == REMOVED) {
+                if (free < 0) free = i;
+            } else if (Arrays.equals((byte[]) k, key)) {
+                V old = (V) table[(i << 1) + 1];
+                table[(i << 1) + 1] = value;
+                return old;
+            }
+        }
+        if (free < 0) {
+            free = i;
+            ++used;
+        }
+        table[free << 1] = key;
+        table[(free << 1) + 1] = value;
+        ++size;
+        ++modCount;
+
+        if (used * 3 >= capacity * 2)
+            rehash(size * 3 >= capacity ? capacity << 1 : capacity);
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof byte[])) return null;
+        int i = find((byte[]) key);
+        if (i < 0) return null;
+        return removeAt(i);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeAt(int i) {
+        V old = (V) table[(i << 1) + 1];
+        table[i << 1] = REMOVED;
+        table[(i << 1) + 1] = null;
+        --size;
+        ++modCount;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        if (table != null)
+            Arrays.fill(table, null);
+        size = 0;
+        used = 0;
+        ++modCount;
+    }
+
+    /* the removed marks are dropped */
+    private void rehash(int newCapacity) {
+        Object[] old = table;
+        table = new Object[newCapacity << 1];
+        capacity = newCapacity;
+        used = size;
+
+        int mask = newCapacity - 1;
+        for (int j = 0; j < old.length; j += 2) {
+            Object k = old[j];
+            if (k == null || k == REMOVED) continue;
+            int i = hash((byte[]) k) & mask;
+            while (table[i << 1] != null)
+                i = (i + 1) & mask;
+            table[i << 1] = k;
+            table[(i << 1) + 1] = old[j + 1];
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<byte[], V>> entrySet() {
+        if (entrySet == null)
+            entrySet = new EntrySet();
+        return entrySet;
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<byte[], V>> {
+
+        @Override
+        public Iterator<Map.Entry<byte[], V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            ByteArrayMap.this.clear();
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<byte[], V>> {
+
+        int next = -1;
+        int current = -1;
+        int expectedModCount = modCount;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            if (table == null) {
+                next = capacity;
+                return;
+            }
+            do {
+                ++next;
+            } while (next < capacity && (table[next << 1] == null || table[next << 1] == REMOVED));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < capacity;
+        }
+
+        @Override
+        public Map.Entry<byte[], V> next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            current = next;
+            advance();
+            return new Entry(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            // the removal leaves a mark, the slots are not moved
+            removeAt(current);
+            current = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private class Entry implements Map.Entry<byte[], V> {
+
+        final int slot;
+        final byte[] key;
+
+        Entry(int slot) {
+            this.slot = slot;
+            this.key = (byte[]) table[slot << 1];
+        }
+
+        @Override
+        public byte[] getKey() {
+            return key;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return (V) table[(slot << 1) + 1];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V value) {
+            V old = (V) table[(slot << 1) + 1];
+            table[(slot << 1) + 1] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object value = getValue();
+            return e.getKey() instanceof byte[] && Arrays.equals(key, (byte[]) e.getKey())
+                    && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return Arrays.hashCode(key) ^ (value == null ? 0 : value.hashCode());
+        }
+    }
+}
@@ -69,10 +69,24 @@ public class ByteUtil {
      * @return number of bytes that match
      */
     public static int matchingNibbleLength(byte[] a, byte[] b) {
+        return matchingNibbleLength(a, 0, b, 0);
+    }
+
+    /**
+     * Calculate the number of matching nibbles of two
+     * nibble sequences starting from the given offsets
+     *
+     * @param a - first sequence
+     * @param aOffset - start index in the first sequence
+     * @param b - second sequence
+     * @param bOffset - start index in the second sequence
+     * @return number of the matching nibbles
+     */
+    public static int matchingNibbleLength(byte[] a, int aOffset, byte[] b, int bOffset) {
         int i = 0;
-        int length = a.length < b.length ? a.length : b.length;
+        int length = Math.min(a.length - aOffset, b.length - bOffset);
         while (i < length) {
-        	if (a[i] != b[i])
+        	if (a[aOffset + i] != b[bOffset + i])
         		break;
             i++;
         }
@@ -1,17 +1,5 @@
 package org.ethereum.util;
 
-import static java.util.Arrays.copyOf;
-import static java.util.Arrays.copyOfRange;
-
-import static org.ethereum.util.ByteUtil.appendByte;
-import static org.spongycastle.util.Arrays.concatenate;
-import static org.spongycastle.util.encoders.Hex.encode;
-
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
-
 /** 
  * Compact encoding of hex sequence with optional terminator
  * 
@@ -49,25 +37,6 @@ import java.util.Map;
 public class CompactEncoder {
 
 	private final static byte TERMINATOR = 16;
-    private final static Map<Character, Byte> hexMap = new HashMap<>();
-    static {
-        hexMap.put('0', (byte)0x0);
-        hexMap.put('1', (byte)0x1);
-        hexMap.put('2', (byte)0x2);
-        hexMap.put('3', (byte)0x3);
-        hexMap.put('4', (byte)0x4);
-        hexMap.put('5', (byte)0x5);
-        hexMap.put('6', (byte)0x6);
-        hexMap.put('7', (byte)0x7);
-        hexMap.put('8', (byte)0x8);
-        hexMap.put('9', (byte)0x9);
-        hexMap.put('a', (byte)0xa);
-        hexMap.put('b', (byte)0xb);
-        hexMap.put('c', (byte)0xc);
-        hexMap.put('d', (byte)0xd);
-        hexMap.put('e', (byte)0xe);
-        hexMap.put('f', (byte)0xf);
-    }
 
 	/**
 	 * Pack nibbles to binary
@@ -77,25 +46,26 @@ public class CompactEncoder {
 	 */
 	public static byte[] packNibbles(byte[] nibbles) {
 		int terminator = 0;
-		
-		if (nibbles[nibbles.length-1] == TERMINATOR) {
+		int length = nibbles.length;
+
+		if (length > 0 && nibbles[length-1] == TERMINATOR) {
 			terminator = 1;
-			nibbles = copyOf(nibbles, nibbles.length-1);
+			--length;
 		}
-		int oddlen = nibbles.length % 2;
+		int oddlen = length % 2;
 		int flag = 2*terminator + oddlen;
+
+		byte[] packed = new byte[length / 2 + 1];
+		int i = 0;
 		if (oddlen != 0) {
-			byte[] flags = new byte[] { (byte) flag};
-			nibbles = concatenate(flags, nibbles);
+			packed[0] = (byte) (16*flag + nibbles[i++]);
 		} else {
-			byte[] flags = new byte[] { (byte) flag, 0};
-			nibbles = concatenate(flags, nibbles);
+			packed[0] = (byte) (16*flag);
 		}
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		for (int i = 0; i < nibbles.length; i += 2) {
-			buffer.write(16*nibbles[i] + nibbles[i+1]);
+		for (int j = 1; j < packed.length; ++j, i += 2) {
+			packed[j] = (byte) (16*nibbles[i] + nibbles[i+1]);
 		}
-		return buffer.toByteArray();
+		return packed;
 	}
 
 	/**
@@ -105,15 +75,17 @@ public class CompactEncoder {
 	 * @return array of nibbles in byte-format  
 	 */
 	public static byte[] unpackToNibbles(byte[] str) {
-		byte[] base = binToNibbles(str);
-		base = copyOf(base, base.length - 1);
-		if (base[0] >= 2) {
-			base = appendByte(base, TERMINATOR);
+		int flag = (str[0] >> 4) & 0x0F;
+		int skip = (flag % 2 == 1) ? 1 : 2;
+		int length = str.length * 2 - skip;
+		int terminator = flag >= 2 ? 1 : 0;
+
+		byte[] base = new byte[length + terminator];
+		for (int i = 0; i < length; ++i) {
+			base[i] = nibble(str, i + skip);
 		}
-		if (base[0] % 2 == 1) {
-			base = copyOfRange(base, 1, base.length);
-		} else {
-			base = copyOfRange(base, 2, base.length);
+		if (terminator == 1) {
+			base[length] = TERMINATOR;
 		}
 		return base;
 	}
@@ -124,21 +96,24 @@ public class CompactEncoder {
 	 * @return array with each individual nibble adding a terminator at the end 
 	 */
 	public static byte[] binToNibbles(byte[] str) {
-		byte[] hexEncoded = encode(str);
-		ByteBuffer slice = ByteBuffer.allocate(hexEncoded.length + 1);
-		for (byte b : hexEncoded) {
-			slice.put(hexMap.get((char)b));
+		byte[] nibbles = new byte[str.length * 2 + 1];
+		for (int i = 0; i < str.length * 2; ++i) {
+			nibbles[i] = nibble(str, i);
 		}
-		slice.put(TERMINATOR);
-		return slice.array();
+		nibbles[nibbles.length - 1] = TERMINATOR;
+		return nibbles;
 	}
 
     public static byte[] binToNibblesNoTerminator(byte[] str) {
-        byte[] hexEncoded = encode(str);
-        ByteBuffer slice = ByteBuffer.allocate(hexEncoded.length);
-        for (byte b : hexEncoded) {
-            slice.put(hexMap.get((char)b));
+        byte[] nibbles = new byte[str.length * 2];
+        for (int i = 0; i < nibbles.length; ++i) {
+            nibbles[i] = nibble(str, i);
         }
-        return slice.array();
+        return nibbles;
     }
+
+	private static byte nibble(byte[] str, int i) {
+		int b = str[i >> 1];
+		return (byte) ((i & 1) == 0 ? (b >> 4) & 0x0F : b & 0x0F);
+	}
 }
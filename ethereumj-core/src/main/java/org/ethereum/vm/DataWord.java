@@ -6,7 +6,6 @@ import org.spongycastle.util.Arrays;
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
-import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 
 /**
@@ -50,6 +49,21 @@ public class DataWord implements Comparable<DataWord> {
 			throw new RuntimeException("Data word can't exit 32 bytes: " + data);        	
 	}
 
+    /**
+     * Replaces the value in place, the data is aligned to the right
+     * as by the constructor
+     */
+    void assign(byte[] value) {
+        if (value.length > 32)
+            throw new RuntimeException("Data word can't exit 32 bytes: " + value);
+        if (this.data.length != 32)
+            this.data = new byte[32];
+        int pad = 32 - value.length;
+        for (int i = 0; i < pad; ++i)
+            this.data[i] = 0;
+        System.arraycopy(value, 0, this.data, pad, value.length);
+    }
+
     public byte[] getData() {
         return data;
     }
@@ -77,7 +91,11 @@ public class DataWord implements Comparable<DataWord> {
 //		FIXME: Disabled for POC5
 //    	BigDecimal tmpValue = new BigDecimal(this.value());
 //      return tmpValue.intValueExact();
-    	return this.value().intValue();
+        // the low 32 bits, as BigInteger.intValue()
+        int result = 0;
+        for (int i = Math.max(0, data.length - 4); i < data.length; ++i)
+            result = (result << 8) | (data[i] & 0xFF);
+        return result;
     }
     
     /**
@@ -89,8 +107,31 @@ public class DataWord implements Comparable<DataWord> {
      * @throws ArithmeticException - if this will not fit in a long.
      */
     public long longValue() {
-    	BigDecimal tmpValue = new BigDecimal(this.value());
-        return tmpValue.longValueExact();
+        int low = Math.max(0, data.length - 8);
+        for (int i = 0; i < low; ++i)
+            if (data[i] != 0)
+                throw new ArithmeticException("Overflow: " + this);
+
+        long result = 0;
+        for (int i = low; i < data.length; ++i)
+            result = (result << 8) | (data[i] & 0xFF);
+        if (result < 0)
+            throw new ArithmeticException("Overflow: " + this);
+        return result;
+    }
+
+    /**
+     * @return the value or Long.MAX_VALUE if the value doesn't fit in a long
+     */
+    public long longValueSaturated() {
+        for (int i = 0; i < data.length - 8; ++i)
+            if (data[i] != 0)
+                return Long.MAX_VALUE;
+
+        long result = 0;
+        for (int i = Math.max(0, data.length - 8); i < data.length; ++i)
+            result = (result << 8) | (data[i] & 0xFF);
+        return result < 0 ? Long.MAX_VALUE : result;
     }
 
     public BigInteger sValue() {
@@ -151,43 +192,30 @@ public class DataWord implements Comparable<DataWord> {
         }
     }
 
-    // By	: Holger
-    // From	: http://stackoverflow.com/a/24023466/459349
     public void add(DataWord word) {
-		byte[] result = new byte[32];
-		for (int i = 31, overflow = 0; i >= 0; i--) {
-			int v = (this.data[i] & 0xff) + (word.data[i] & 0xff) + overflow;
-			result[i] = (byte) v;
-			overflow = v >>> 8;
-		}
-		this.data = result;
+        int[] a = limbs(this.data);
+        int[] b = limbs(word.data);
+        long carry = 0;
+        for (int i = 0; i < LIMBS; ++i) {
+            long sum = (a[i] & INT_MASK) + (b[i] & INT_MASK) + carry;
+            a[i] = (int) sum;
+            carry = sum >>> 32;
+        }
+        setLimbs(a);
     }
-    
-    // old add-method with BigInteger quick hack
-    public void add2(DataWord word) {
-
-		BigInteger result = value().add(word.value());
-        byte[] bytes = result.toByteArray();
 
-        ByteBuffer data    =  ByteBuffer.allocate(32);
-        System.arraycopy(bytes, 0, data.array(), 32 - bytes.length, bytes.length);
-        this.data = data.array();
+    /**
+     * The same as {@link #add(DataWord)}, kept for the callers of the
+     * old BigInteger version
+     */
+    public void add2(DataWord word) {
+        add(word);
     }
-    
-    // TODO: mul can be done in more efficient way
-    // TODO:     with shift left shift right trick
-    // TODO      without BigInteger quick hack
-    public void mul(DataWord word) {
-
-		BigInteger result = value().multiply(word.value());
-        byte[] bytes = result.toByteArray();
 
-        ByteBuffer data    =  ByteBuffer.allocate(32);
-        System.arraycopy(bytes, 0, data.array(), 32 - bytes.length, bytes.length);
-        this.data = data.array();
+    public void mul(DataWord word) {
+        setLimbs(mul(limbs(this.data), limbs(word.data)));
     }
 
-    // TODO: improve with no BigInteger
     public void div(DataWord word)  {
 
         if (word.isZero()) {
@@ -195,15 +223,9 @@ public class DataWord implements Comparable<DataWord> {
             return;
         }
 
-		BigInteger result = value().divide(word.value());
-        byte[] bytes = result.toByteArray();
-
-        ByteBuffer data    =  ByteBuffer.allocate(32);
-        System.arraycopy(bytes, 0, data.array(), 32 - bytes.length, bytes.length);
-        this.data = data.array();
+        setLimbs(divide(limbs(this.data), limbs(word.data), false));
     }
 
-    // TODO: improve with no BigInteger
     public void sDiv(DataWord word) {
 
         if (word.isZero()) {
@@ -211,41 +233,42 @@ public class DataWord implements Comparable<DataWord> {
             return;
         }
 
-		BigInteger result = sValue().divide(word.sValue());
-        byte[] bytes = result.toByteArray();
-
-        ByteBuffer data    =  ByteBuffer.allocate(32);
-        if (result.compareTo(BigInteger.ZERO) == -1)
-            Arrays.fill(data.array(), (byte) 0xFF);
-
-        System.arraycopy(bytes, 0, data.array(), 32 - bytes.length, bytes.length);
-        this.data = data.array();
+        boolean negative = this.isNegative() != word.isNegative();
+        int[] result = divide(abs(this), abs(word), false);
+        if (negative) negate(result);
+        setLimbs(result);
     }
 
-
-    // TODO: improve with no BigInteger
     public void sub(DataWord word) {
-
-		BigInteger result = value().subtract(word.value());
-        byte[] bytes = result.toByteArray();
-
-        ByteBuffer data    =  ByteBuffer.allocate(32);
-        System.arraycopy(bytes, 0, data.array(), 32 - bytes.length, bytes.length);
-        this.data = data.array();
+        int[] a = limbs(this.data);
+        int[] b = limbs(word.data);
+        long borrow = 0;
+        for (int i = 0; i < LIMBS; ++i) {
+            long diff = (a[i] & INT_MASK) - (b[i] & INT_MASK) - borrow;
+            a[i] = (int) diff;
+            borrow = diff < 0 ? 1 : 0;
+        }
+        setLimbs(a);
     }
 
-    // TODO: improve with no BigInteger
+    /* by squaring, all the 256 bits of the exponent are used */
     public void exp(DataWord word) {
-
-		BigInteger result = value().pow(word.intValue());
-        byte[] bytes = result.toByteArray();
-
-        ByteBuffer data    =  ByteBuffer.allocate(32);
-        System.arraycopy(bytes, 0, data.array(), 32 - bytes.length, bytes.length);
-        this.data = data.array();
+        int[] base = limbs(this.data);
+        int[] exponent = limbs(word.data);
+        int[] result = new int[LIMBS];
+        result[0] = 1;
+
+        int n = length(exponent);
+        int bits = n == 0 ? 0 : 32 * n - Integer.numberOfLeadingZeros(exponent[n - 1]);
+        for (int i = 0; i < bits; ++i) {
+            if ((exponent[i >>> 5] >>> (i & 31) & 1) != 0)
+                result = mul(result, base);
+            if (i + 1 < bits)
+                base = mul(base, base);
+        }
+        setLimbs(result);
     }
 
-    // TODO: improve with no BigInteger
     public void mod(DataWord word) {
 
         if (word.isZero()) {
@@ -253,15 +276,10 @@ public class DataWord implements Comparable<DataWord> {
             return;
         }
 
-        BigInteger result = value().mod(word.value());
-        byte[] bytes = result.toByteArray();
-
-        ByteBuffer data    =  ByteBuffer.allocate(32);
-        System.arraycopy(bytes, 0, data.array(), 32 - bytes.length, bytes.length);
-        this.data = data.array();
+        setLimbs(divide(limbs(this.data), limbs(word.data), true));
     }
 
-    // TODO: improve with no BigInteger
+    /* the result is not negative as by BigInteger.mod(), the negative divisor gives zero */
     public void sMod(DataWord word) {
 
         if (word.isZero() || word.isNegative()) {
@@ -269,15 +287,216 @@ public class DataWord implements Comparable<DataWord> {
             return;
         }
 
-        BigInteger result = sValue().mod( word.sValue());
-        byte[] bytes = result.toByteArray();
+        int[] divisor = limbs(word.data);
+        int[] result = divide(abs(this), divisor, true);
+        if (this.isNegative() && !isZero(result)) {
+            // divisor - |this| mod divisor
+            long borrow = 0;
+            for (int i = 0; i < LIMBS; ++i) {
+                long diff = (divisor[i] & INT_MASK) - (result[i] & INT_MASK) - borrow;
+                result[i] = (int) diff;
+                borrow = diff < 0 ? 1 : 0;
+            }
+        }
+        setLimbs(result);
+    }
 
-        ByteBuffer data    =  ByteBuffer.allocate(32);
-        if (result.compareTo(BigInteger.ZERO) == -1)
-            Arrays.fill(data.array(), (byte) 0xFF);
+    /**
+     * Compares the words as the signed numbers
+     */
+    public int sCompareTo(DataWord o) {
+        if (this.isNegative() != o.isNegative())
+            return this.isNegative() ? -1 : 1;
+        // the two's complement of the same sign is ordered as unsigned
+        return compareTo(o);
+    }
 
-        System.arraycopy(bytes, 0, data.array(), 32 - bytes.length, bytes.length);
-        this.data = data.array();
+    /*
+     * The arithmetic is done on 8 unsigned limbs of 32 bits, the least
+     * significant first, so the products and the carries fit in a long.
+     */
+
+    private static final int LIMBS = 8;
+    private static final long INT_MASK = 0xFFFFFFFFL;
+
+    /* the data is aligned to the right, as by the constructor */
+    private static int[] limbs(byte[] data) {
+        int[] limbs = new int[LIMBS];
+        for (int i = 0, end = data.length; i < LIMBS && end > 0; ++i, end -= 4) {
+            int limb = 0;
+            for (int j = Math.max(0, end - 4); j < end; ++j)
+                limb = (limb << 8) | (data[j] & 0xFF);
+            limbs[i] = limb;
+        }
+        return limbs;
+    }
+
+    private void setLimbs(int[] limbs) {
+        if (this.data.length != 32)
+            this.data = new byte[32];
+        for (int i = 0; i < LIMBS; ++i) {
+            int limb = limbs[i];
+            int offset = 28 - 4 * i;
+            this.data[offset] = (byte) (limb >>> 24);
+            this.data[offset + 1] = (byte) (limb >>> 16);
+            this.data[offset + 2] = (byte) (limb >>> 8);
+            this.data[offset + 3] = (byte) limb;
+        }
+    }
+
+    private static boolean isZero(int[] a) {
+        for (int limb : a)
+            if (limb != 0) return false;
+        return true;
+    }
+
+    /* two's complement in place */
+    private static void negate(int[] a) {
+        long carry = 1;
+        for (int i = 0; i < LIMBS; ++i) {
+            long sum = (~a[i] & INT_MASK) + carry;
+            a[i] = (int) sum;
+            carry = sum >>> 32;
+        }
+    }
+
+    /* the absolute value of the signed word, -2^255 stays 2^255 unsigned */
+    private static int[] abs(DataWord word) {
+        int[] a = limbs(word.data);
+        if (word.isNegative()) negate(a);
+        return a;
+    }
+
+    /* the product modulo 2^256 */
+    private static int[] mul(int[] a, int[] b) {
+        int[] result = new int[LIMBS];
+        for (int i = 0; i < LIMBS; ++i) {
+            if (a[i] == 0) continue;
+            long ai = a[i] & INT_MASK;
+            long carry = 0;
+            for (int j = 0; i + j < LIMBS; ++j) {
+                // (2^32 - 1)^2 + 2 * (2^32 - 1) still fits in 64 unsigned bits
+                long product = ai * (b[j] & INT_MASK) + (result[i + j] & INT_MASK) + carry;
+                result[i + j] = (int) product;
+                carry = product >>> 32;
+            }
+        }
+        return result;
+    }
+
+    /* number of the limbs without the leading zero limbs */
+    private static int length(int[] a) {
+        int n = LIMBS;
+        while (n > 0 && a[n - 1] == 0) --n;
+        return n;
+    }
+
+    /* the unsigned 64 bit number divided by the divisor of at most 32 bits */
+    private static long divideUnsigned(long n, long divisor) {
+        if (n >= 0)
+            return n / divisor;
+        long quotient = ((n >>> 1) / divisor) << 1;
+        long rem = n - quotient * divisor;
+        return quotient + (rem + Long.MIN_VALUE >= divisor + Long.MIN_VALUE ? 1 : 0);
+    }
+
+    /* the unsigned a > b */
+    private static boolean greater(long a, long b) {
+        return a + Long.MIN_VALUE > b + Long.MIN_VALUE;
+    }
+
+    /**
+     * The unsigned division by the algorithm D of Knuth (TAOCP 4.3.1)
+     *
+     * @param v - not zero
+     * @return the quotient or the remainder
+     */
+    private static int[] divide(int[] u, int[] v, boolean remainder) {
+        int m = length(u);
+        int n = length(v);
+        int[] quotient = new int[LIMBS];
+        if (m < n)
+            return remainder ? u : quotient;
+
+        if (n == 1) {
+            long divisor = v[0] & INT_MASK;
+            long rem = 0;
+            for (int i = m - 1; i >= 0; --i) {
+                long current = (rem << 32) | (u[i] & INT_MASK);
+                long q = divideUnsigned(current, divisor);
+                quotient[i] = (int) q;
+                rem = current - q * divisor;
+            }
+            if (!remainder) return quotient;
+            int[] result = new int[LIMBS];
+            result[0] = (int) rem;
+            return result;
+        }
+
+        // normalize, the top bit of the divisor is set
+        int shift = Integer.numberOfLeadingZeros(v[n - 1]);
+        int[] vn = new int[n];
+        int[] un = new int[m + 1];
+        for (int i = n - 1; i > 0; --i)
+            vn[i] = shiftLeft(v[i], v[i - 1], shift);
+        vn[0] = v[0] << shift;
+        un[m] = shift == 0 ? 0 : u[m - 1] >>> (32 - shift);
+        for (int i = m - 1; i > 0; --i)
+            un[i] = shiftLeft(u[i], u[i - 1], shift);
+        un[0] = u[0] << shift;
+
+        long top = vn[n - 1] & INT_MASK;
+        long next = vn[n - 2] & INT_MASK;
+        for (int j = m - n; j >= 0; --j) {
+            // estimate the digit by the top limbs, it is at most 2 too large
+            long numerator = ((un[j + n] & INT_MASK) << 32) | (un[j + n - 1] & INT_MASK);
+            long qhat = divideUnsigned(numerator, top);
+            long rhat = numerator - qhat * top;
+            while (qhat > INT_MASK
+                    || greater(qhat * next, (rhat << 32) | (un[j + n - 2] & INT_MASK))) {
+                --qhat;
+                rhat += top;
+                if (rhat > INT_MASK) break;
+            }
+
+            // multiply and subtract
+            long borrow = 0;
+            long diff;
+            for (int i = 0; i < n; ++i) {
+                long product = qhat * (vn[i] & INT_MASK);
+                diff = (un[i + j] & INT_MASK) - borrow - (product & INT_MASK);
+                un[i + j] = (int) diff;
+                borrow = (product >>> 32) - (diff >> 32);
+            }
+            diff = (un[j + n] & INT_MASK) - borrow;
+            un[j + n] = (int) diff;
+
+            if (diff < 0) {
+                // the digit was one too large, add the divisor back
+                --qhat;
+                long carry = 0;
+                for (int i = 0; i < n; ++i) {
+                    long sum = (un[i + j] & INT_MASK) + (vn[i] & INT_MASK) + carry;
+                    un[i + j] = (int) sum;
+                    carry = sum >>> 32;
+                }
+                un[j + n] += (int) carry;
+            }
+            quotient[j] = (int) qhat;
+        }
+        if (!remainder) return quotient;
+
+        // denormalize
+        int[] result = new int[LIMBS];
+        for (int i = 0; i < n - 1; ++i)
+            result[i] = shift == 0 ? un[i] : (un[i] >>> shift) | (un[i + 1] << (32 - shift));
+        result[n - 1] = un[n - 1] >>> shift;
+        return result;
+    }
+
+    /* the high limb shifted left, filled by the top bits of the low limb */
+    private static int shiftLeft(int high, int low, int shift) {
+        return shift == 0 ? high : (high << shift) | (low >>> (32 - shift));
     }
 
     public String toString() {
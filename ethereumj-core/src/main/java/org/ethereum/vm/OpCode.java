@@ -130,10 +130,13 @@ public enum OpCode {
     
     private static final Map<Byte, OpCode> intToTypeMap = new HashMap<Byte, OpCode>();
     private static final Map<String, Byte> stringToByteMap = new HashMap<String, Byte>();
+    /* the op by the unsigned byte, looked up without boxing */
+    private static final OpCode[] byteToType = new OpCode[256];
 
     static {
         for (OpCode type : OpCode.values()) {
             intToTypeMap.put(type.opcode, type);
+            byteToType[type.opcode & 0xFF] = type;
             stringToByteMap.put(type.name(), type.opcode);
         }
     }
@@ -166,6 +169,6 @@ public enum OpCode {
     }
 
     public static OpCode code(byte op) {
-        return intToTypeMap.get(op);
+        return byteToType[op & 0xFF];
     }
 }
@@ -15,7 +15,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Stack;
 
 /**
  * www.ethereumJ.com
@@ -29,23 +28,38 @@ public class Program {
     private int invokeHash;
     private ProgramListener listener;
 
-    Stack<DataWord> stack = new Stack<>();
+    /* only copied into the stack */
+    private static final DataWord ONE = new DataWord(1);
+
+    Stack stack = new Stack();
     ByteBuffer memory = null;
     DataWord programAddress;
 
     ProgramResult result = new ProgramResult();
 
     byte[]   ops;
+    ProgramCode code;
     int      pc = 0;
     byte     lastOp = 0;
     boolean  stopped = false;
+    /* the gas paid for the rest of the block */
+    long     prepaidGas = 0;
 
     ProgramInvoke invokeData;
 
     public Program(byte[] ops, ProgramInvoke invokeData) {
+        this(ops, null, invokeData);
+    }
+
+    /**
+     * @param codeHash - the hash of the code saved by the account, the code
+     * 		decoded once is shared by the programs, null for the init code
+     */
+    public Program(byte[] ops, byte[] codeHash, ProgramInvoke invokeData) {
     	
         if (ops == null) ops = ByteUtil.EMPTY_BYTE_ARRAY;
         this.ops = ops;
+        this.code = ProgramCode.of(ops, codeHash);
         
         if (invokeData != null) {
 	        this.invokeData = invokeData;
@@ -61,30 +75,37 @@ public class Program {
         return ops[pc];
     }
 
+    /**
+     * @return the decoded op at the pc, STOP for the empty code
+     * 		and null if the byte is not an op
+     */
+    public OpCode getCurrentOpCode() {
+        if (ops.length == 0)
+            return OpCode.STOP;
+        return code.getOp(pc);
+    }
+
     public void setLastOp(byte op) {
         this.lastOp = op;
     }
 
     public void stackPush(byte[] data) {
-        DataWord stackWord = new DataWord(data);
-        stack.push(stackWord);
+        stack.push(data);
     }
 
     public void stackPushZero() {
-        DataWord stackWord = new DataWord(0);
-        stack.push(stackWord);
+        stack.push(DataWord.ZERO);
     }
 
     public void stackPushOne() {
-        DataWord stackWord = new DataWord(1);
-        stack.push(stackWord);
+        stack.push(ONE);
     }
 
     public void stackPush(DataWord stackWord) {
         stack.push(stackWord);
     }
     
-    public Stack<DataWord> getStack() {
+    public Stack getStack() {
     	return this.stack;
     }
 
@@ -141,6 +162,23 @@ public class Program {
         return data;
     }
 
+    /**
+     * Moves over the PUSH at the pc
+     *
+     * @param n - number of the bytes pushed
+     * @return the bytes decoded with the code, they must not be changed
+     */
+    public byte[] sweepPush(int n) {
+        byte[] data = code.getPushData(pc);
+        step();
+        if (data == null)
+            return sweep(n);
+
+        pc += n;
+        if (pc >= ops.length) stop();
+        return data;
+    }
+
     public DataWord stackPop() {
         if (stack.size() == 0) {
             stop();
@@ -149,6 +187,22 @@ public class Program {
         return stack.pop();
     }
     
+    public void stackDup() {
+        if (stack.size() == 0) {
+            stop();
+            throw new RuntimeException("attempted pull action for empty stack");
+        }
+        stack.dup();
+    }
+
+    public void stackSwap() {
+        if (stack.size() < 2) {
+            stop();
+            throw new RuntimeException("attempted pull action for empty stack");
+        }
+        stack.swap();
+    }
+
     public void require(int stackSize) {
     	if(stack.size() != stackSize) {
             stop();
@@ -162,6 +216,14 @@ public class Program {
         return memSize;
     }
 
+    /**
+     * @return a copy of the memory of the program
+     */
+    public byte[] getMemory() {
+        if (memory == null) return ByteUtil.EMPTY_BYTE_ARRAY;
+        return Arrays.copyOf(memory.array(), memory.limit());
+    }
+
     public void memorySave(DataWord addrB, DataWord value) {
         memorySave(addrB.intValue(), value.getData());
     }
@@ -232,10 +294,18 @@ public class Program {
 
         int memSize = memory != null ? memory.limit(): 0;
         double newMemSize = Math.max(memSize, Math.ceil((double)(offset + size) / 32) * 32);
-        ByteBuffer tmpMem = ByteBuffer.allocate((int)newMemSize);
+        if (memory != null && newMemSize <= memory.capacity()) {
+            // the limit is the size of the memory, the bytes above it are still zero
+            memory.limit((int) newMemSize);
+            return;
+        }
+
+        // the capacity is doubled, so the memory growing by words is copied log(n) times
+        int capacity = (int) Math.max(newMemSize, Math.min(2L * memSize, Integer.MAX_VALUE - 8));
+        byte[] tmpMem = new byte[capacity];
         if (memory != null)
-        	tmpMem.put(memory.array(), 0, memory.limit());
-        memory = tmpMem;
+        	System.arraycopy(memory.array(), 0, tmpMem, 0, memSize);
+        memory = ByteBuffer.wrap(tmpMem, 0, (int) newMemSize);
     }
 
     public void suicide(DataWord obtainer) {
@@ -357,6 +427,7 @@ public class Program {
 
         // FETCH THE CODE
         byte[] programCode = this.result.getRepository().getCode(toAddress);
+        byte[] codeHash = this.result.getRepository().getCodeHash(toAddress);
 
         if (logger.isInfoEnabled())
             logger.info("calling for existing contract: address: [ {} ], outDataOffs: [ {} ], outDataSize: [ {} ]  ",
@@ -411,7 +482,7 @@ public class Program {
 
         if (programCode != null && programCode.length != 0) {
             VM vm = new VM();
-            Program program = new Program(programCode, programInvoke);
+            Program program = new Program(programCode, codeHash, programInvoke);
             vm.play(program);
             result = program.getResult();
             this.result.addDeleteAccounts(result.getDeleteAccounts());
@@ -469,6 +540,44 @@ public class Program {
         result.spendGas(gasValue);
     }
 
+    /**
+     * Pays the gas of the ops from the pc to the end of the block, if
+     * the gas is not enough, the ops are paid one by one and the out of
+     * gas happens at the same op
+     */
+    public void prepayBlockGas() {
+        if (prepaidGas > 0 || invokeData == null || pc >= ops.length)
+            return;
+
+        int blockGas = code.getBlockGas(pc);
+        if (blockGas == 0 || invokeData.getGas().longValue() - result.getGasUsed() < blockGas)
+            return;
+        spendGas(blockGas, "block");
+        prepaidGas = blockGas;
+    }
+
+    /**
+     * Spends the gas of the op, it is taken from the gas paid
+     * for the block when the op is in one
+     */
+    public void spendOpGas(long gasValue, String cause) {
+        if (prepaidGas > 0) {
+            prepaidGas -= gasValue;
+            return;
+        }
+        spendGas(gasValue, cause);
+    }
+
+    /**
+     * Returns the gas paid for the ops of the block which didn't run
+     */
+    public void refundPrepaidGas() {
+        if (prepaidGas > 0) {
+            refundGas(prepaidGas, "block not run");
+            prepaidGas = 0;
+        }
+    }
+
     public void refundGas(long gasValue, String cause) {
         gasLogger.info("[{}] Refund for cause: [ {} ], gas: [ {} ]", invokeHash, cause, gasValue);
         result.refundGas(gasValue);
@@ -0,0 +1,176 @@
+package org.ethereum.vm;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.ethereum.db.ByteArrayWrapper;
+
+/**
+ * The code of a contract decoded once: the op at every byte and
+ * the bytes pushed by every PUSH, so the run of the code looks up
+ * the ops instead of decoding them again on each step. A jump may
+ * land inside the data of a PUSH, so every byte is decoded, not
+ * only the starts of the instructions.
+ *
+ * The gas known before the ops run is summed by the basic blocks:
+ * from each op to the end of its block, so the VM pays the block
+ * once when it enters it, at any op. A block ends by the ops which
+ * jump or stop, by the ops which read the gas and by the ops with
+ * the memory cost, after them. SSTORE and CALL are paid by the VM
+ * on their own, the blocks end before them.
+ *
+ * The code saved by the repository is cached by its code hash, the
+ * contracts called again skip the decoding. The cache is bounded by
+ * the total size of the code, the decoded code is an order of
+ * magnitude larger than the code.
+ */
+public class ProgramCode {
+
+    /* the total size of the cached code */
+    private static final int CACHE_SIZE = 1 << 20;
+
+    private static final LinkedHashMap<ByteArrayWrapper, ProgramCode> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static int cachedSize;
+
+    private final OpCode[] ops;
+    /* the bytes pushed by the PUSH at the index, null for the other ops
+     * and for the PUSH cut by the end of the code */
+    private final byte[][] pushData;
+    /* the gas of the ops from the index to the end of its block */
+    private final int[] blockGas;
+
+    private ProgramCode(byte[] code) {
+        ops = new OpCode[code.length];
+        pushData = new byte[code.length][];
+        for (int i = 0; i < code.length; ++i) {
+            OpCode op = OpCode.code(code[i]);
+            ops[i] = op;
+            if (op == null || op.val() < OpCode.PUSH1.val() || op.val() > OpCode.PUSH32.val())
+                continue;
+
+            int n = op.val() - OpCode.PUSH1.val() + 1;
+            if (i + 1 + n <= code.length)
+                pushData[i] = Arrays.copyOfRange(code, i + 1, i + 1 + n);
+        }
+
+        // the next op is after the index, so the blocks are summed backwards
+        blockGas = new int[code.length];
+        for (int i = code.length - 1; i >= 0; --i) {
+            OpCode op = ops[i];
+            if (op == null || op == OpCode.SSTORE || op == OpCode.CALL)
+                continue;
+
+            int next = i + 1 + (pushData[i] != null ? pushData[i].length : 0);
+            blockGas[i] = opGas(op);
+            if (!endsBlock(op) && next < code.length)
+                blockGas[i] += blockGas[next];
+        }
+    }
+
+    /**
+     * @return the gas of the op paid before it runs,
+     * 		SSTORE is paid by the values stored
+     */
+    static int opGas(OpCode op) {
+        switch (op) {
+            case STOP: case SUICIDE:
+                // The ops that don't charge by step
+                return GasCost.STOP;
+            case SLOAD:
+                return GasCost.SLOAD;
+            case BALANCE:
+                return GasCost.BALANCE;
+            case SHA3:
+                return GasCost.SHA3;
+            case CALL:
+                return GasCost.CALL;
+            case CREATE:
+                return GasCost.CREATE;
+            default:
+                return GasCost.STEP;
+        }
+    }
+
+    /* the ops after it are paid by the next block */
+    private static boolean endsBlock(OpCode op) {
+        switch (op) {
+            case STOP: case RETURN: case SUICIDE:
+            case JUMP: case JUMPI:
+            case GAS: case CREATE:
+            case MSTORE: case MSTORE8: case MLOAD:
+            case SHA3: case CALLDATACOPY: case CODECOPY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the code decoded for one program, as the init code
+     */
+    public static ProgramCode of(byte[] code) {
+        return new ProgramCode(code);
+    }
+
+    /**
+     * @param codeHash - the hash of the code kept by the account, null
+     * 		if the code is not saved
+     * @return the decoded code, shared by all the programs running it
+     */
+    public static ProgramCode of(byte[] code, byte[] codeHash) {
+        if (codeHash == null || code.length > CACHE_SIZE)
+            return new ProgramCode(code);
+
+        ByteArrayWrapper key = new ByteArrayWrapper(codeHash);
+        synchronized (cache) {
+            ProgramCode decoded = cache.get(key);
+            if (decoded != null)
+                return decoded;
+        }
+
+        // decoded out of the lock, two programs may decode the same code at once
+        ProgramCode decoded = new ProgramCode(code);
+        synchronized (cache) {
+            ProgramCode cached = cache.get(key);
+            if (cached != null)
+                return cached;
+
+            cache.put(key, decoded);
+            cachedSize += decoded.size();
+            Iterator<ProgramCode> eldest = cache.values().iterator();
+            while (cachedSize > CACHE_SIZE) {
+                cachedSize -= eldest.next().size();
+                eldest.remove();
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * @return the op at the pc, null if the byte is not an op
+     */
+    public OpCode getOp(int pc) {
+        return ops[pc];
+    }
+
+    /**
+     * @return the bytes pushed by the PUSH at the pc, they must not be
+     * 		changed, or null if the PUSH is cut by the end of the code
+     */
+    public byte[] getPushData(int pc) {
+        return pushData[pc];
+    }
+
+    /**
+     * @return the gas of the ops from the pc to the end of the block,
+     * 		0 for SSTORE, CALL and the bytes which are not ops
+     */
+    public int getBlockGas(int pc) {
+        return blockGas[pc];
+    }
+
+    public int size() {
+        return ops.length;
+    }
+}
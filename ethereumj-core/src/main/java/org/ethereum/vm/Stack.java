@@ -0,0 +1,119 @@
+package org.ethereum.vm;
+
+import java.util.EmptyStackException;
+
+/**
+ * The operand stack of the program, at most 1024 words. The words are
+ * mutable slots owned by the stack: a push copies the value into the
+ * slot on the top, so the stack traffic of the VM allocates nothing
+ * once the stack has reached its depth. The stack is not thread safe.
+ *
+ * A popped word stays valid until a push lands on its slot, so an op
+ * should pop its operands, compute in place and push its result last.
+ * Pushing back a popped word moves the slot itself, as for SWAP.
+ */
+public class Stack {
+
+    public static final int LIMIT = 1024;
+
+    /* the popped words are looked for this far above the top */
+    private static final int POPPED_WINDOW = 8;
+
+    /* the slots are created as the stack first gets deep */
+    private final DataWord[] slots = new DataWord[LIMIT];
+    private int created;
+    private int size;
+
+    public void push(DataWord word) {
+        DataWord slot = top();
+        if (word != slot) {
+            int index = popped(word);
+            if (index < 0) {
+                slot.assign(word.getData());
+            } else {
+                slots[index] = slot;
+                slots[size] = word;
+            }
+        }
+        ++size;
+    }
+
+    /**
+     * @param data - at most 32 bytes, aligned to the right
+     */
+    public void push(byte[] data) {
+        top().assign(data);
+        ++size;
+    }
+
+    /**
+     * @return the word on the top, valid until a push lands on its slot
+     */
+    public DataWord pop() {
+        if (size == 0)
+            throw new EmptyStackException();
+        return slots[--size];
+    }
+
+    public DataWord peek() {
+        if (size == 0)
+            throw new EmptyStackException();
+        return slots[size - 1];
+    }
+
+    /**
+     * @param index - from the bottom of the stack
+     */
+    public DataWord get(int index) {
+        if (index < 0 || index >= size)
+            throw new ArrayIndexOutOfBoundsException(index);
+        return slots[index];
+    }
+
+    /* pushes a copy of the top word */
+    public void dup() {
+        DataWord word = peek();
+        top().assign(word.getData());
+        ++size;
+    }
+
+    /* exchanges the two words on the top */
+    public void swap() {
+        if (size < 2)
+            throw new EmptyStackException();
+        DataWord word = slots[size - 1];
+        slots[size - 1] = slots[size - 2];
+        slots[size - 2] = word;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public DataWord[] toArray() {
+        DataWord[] words = new DataWord[size];
+        System.arraycopy(slots, 0, words, 0, size);
+        return words;
+    }
+
+    /* the free slot above the top */
+    private DataWord top() {
+        if (size == LIMIT)
+            throw new RuntimeException("stack overflow, the limit is " + LIMIT);
+        if (size == created)
+            slots[created++] = new DataWord();
+        return slots[size];
+    }
+
+    /* index of the word among the slots popped last or -1 */
+    private int popped(DataWord word) {
+        for (int i = size + 1, end = Math.min(created, size + POPPED_WINDOW); i < end; ++i)
+            if (slots[i] == word)
+                return i;
+        return -1;
+    }
+}
@@ -15,7 +15,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Stack;
 
 import static org.ethereum.vm.OpCode.CALL;
 import static org.ethereum.vm.OpCode.CREATE;
@@ -63,10 +62,9 @@ public class VM {
 	
 	private Logger logger = LoggerFactory.getLogger("VM");
 	private Logger dumpLogger = LoggerFactory.getLogger("dump");
-	private static BigInteger _32_ = BigInteger.valueOf(32);
+	private static DataWord _32_ = new DataWord(32);
 	private static String logString = "[{}]\t Op: [{}]  Gas: [{}] Deep: [{}]  Hint: [{}]";
 	
-	private static BigInteger MAX_GAS = BigInteger.valueOf(Long.MAX_VALUE);
 	
 	/* Keeps track of the number of steps performed in this VM */
 	private int vmCounter = 0;
@@ -76,25 +74,26 @@ public class VM {
         program.fullTrace();
     	
         try {
-            OpCode op = OpCode.code(program.getCurrentOp());
+            OpCode op = program.getCurrentOpCode();
             program.setLastOp(op.val());
 
+            // the dump shows the gas of each op, so the blocks are not prepaid
+            boolean dump = program.getNumber().intValue() == CONFIG.dumpBlock();
+            if (!dump)
+                program.prepayBlockGas();
+
             long oldMemSize = program.getMemSize();
-            BigInteger newMemSize = BigInteger.ZERO;
-            Stack<DataWord> stack = program.getStack();
+            long newMemSize = 0;
+            Stack stack = program.getStack();
 
             String hint = "";
             long callGas = 0, memWords = 0; // parameters for logging
-            long gasCost = GasCost.STEP;
-            long gasBefore = program.getGas().longValue();
+            long gasCost = ProgramCode.opGas(op);
+            long gasBefore = dump ? program.getGas().longValue() : 0;
             int stepBefore = program.getPC();
             
     		// Calculate fees and spend gas
             switch (op) {
-                case STOP: case SUICIDE:
-                    // The ops that don't charge by step
-                	gasCost = GasCost.STOP;
-                    break;
         		case SSTORE:
         			// for gas calculations [YP 9.2]
         			DataWord newValue = stack.get(stack.size()-2);
@@ -106,38 +105,30 @@ public class VM {
                     } else
                         gasCost = GasCost.SSTORE;
         			break;
-                case SLOAD:
-                    gasCost = GasCost.SLOAD;
-                    break;
-                case BALANCE:
-                    gasCost = GasCost.BALANCE;
-                    break;
-                    
+
         		// These all operate on memory and therefore potentially expand it:
         		case MSTORE:
-        			newMemSize = stack.peek().value().add(BigInteger.valueOf(32));
+        			newMemSize = memNeeded(stack.peek(), 32);
         			break;
         		case MSTORE8:
-        			newMemSize = stack.peek().value().add(BigInteger.ONE);
+        			newMemSize = memNeeded(stack.peek(), 1);
         			break;
         		case MLOAD:
-        			newMemSize = stack.peek().value().add(BigInteger.valueOf(32));
+        			newMemSize = memNeeded(stack.peek(), 32);
         			break;
         		case RETURN:
-        			newMemSize = stack.peek().value().add(stack.get(stack.size()-2).value());
+        			newMemSize = memNeeded(stack.peek(), stack.get(stack.size()-2));
         			break;
         		case SHA3:
-        			gasCost = GasCost.SHA3;
-        			newMemSize = stack.peek().value().add(stack.get(stack.size()-2).value());
+        			newMemSize = memNeeded(stack.peek(), stack.get(stack.size()-2));
         			break;
         		case CALLDATACOPY:
-        			newMemSize = stack.peek().value().add(stack.get(stack.size()-3).value());
+        			newMemSize = memNeeded(stack.peek(), stack.get(stack.size()-3));
         			break;
         		case CODECOPY:
-        			newMemSize = stack.peek().value().add(stack.get(stack.size()-3).value());
+        			newMemSize = memNeeded(stack.peek(), stack.get(stack.size()-3));
         			break;
         		case CALL:
-        			gasCost = GasCost.CALL;
         			BigInteger callGasWord = stack.get(stack.size()-1).value();
         			if(callGasWord.compareTo(program.getGas().value()) == 1) {
         				throw program.new OutOfGasException();
@@ -146,24 +137,23 @@ public class VM {
         			// Casting to long (causing overflow) as workaround for PoC5 - should be removed for PoC6
         			long x = stack.get(stack.size()-4).value().add(stack.get(stack.size()-5).value()).longValue(); // in offset+size
     				long y = stack.get(stack.size()-6).value().add(stack.get(stack.size()-7).value()).longValue(); // out offset+size
-        			newMemSize = BigInteger.valueOf(Math.max(x, y));
+        			newMemSize = Math.max(x, y);
         			break;
         		case CREATE:
-        			gasCost = GasCost.CREATE;
-        			newMemSize = stack.get(stack.size()-2).value().add(stack.get(stack.size()-3).value());
+        			newMemSize = memNeeded(stack.get(stack.size()-2), stack.get(stack.size()-3));
         			break;
                 default:
                     break;
             }
-            program.spendGas(gasCost, op.name());
+            program.spendOpGas(gasCost, op.name());
             
             // Avoid overflows
-            if(newMemSize.compareTo(MAX_GAS) == 1) {
+            if(newMemSize == Long.MAX_VALUE) {
             	throw program.new OutOfGasException();
             }
             
             // memory gas calc
-            long memoryUsage = (newMemSize.longValue() + 31) / 32 * 32;            
+            long memoryUsage = (newMemSize + 31) / 32 * 32;            
 	        if (memoryUsage > oldMemSize) {
 	        	memWords = (memoryUsage - oldMemSize) / 32;
 	        	long memGas = GasCost.MEMORY * memWords;
@@ -172,7 +162,7 @@ public class VM {
 	        }
 
 			// Log debugging line for VM
-    		if(program.getNumber().intValue() == CONFIG.dumpBlock())
+    		if(dump)
     			this.dumpLine(op, gasBefore, gasCost+callGas, memWords, program);
 	    		
             // Execute operation
@@ -284,14 +274,13 @@ public class VM {
                     program.step();
                 }	break;
                 case LT:{
-                	// TODO: can be improved by not using BigInteger
                     DataWord word1 = program.stackPop();
                     DataWord word2 = program.stackPop();
 
                     if (logger.isInfoEnabled())
                         hint = word1.value() + " < " + word2.value();
 
-                    if (word1.value().compareTo(word2.value()) == -1) {
+                    if (word1.compareTo(word2) < 0) {
                         word1.and(DataWord.ZERO);
                         word1.getData()[31] = 1;
                     } else {
@@ -301,14 +290,13 @@ public class VM {
                     program.step();
                 }	break;
                 case SLT:{
-                	// TODO: can be improved by not using BigInteger
                     DataWord word1 = program.stackPop();
                     DataWord word2 = program.stackPop();
 
                     if (logger.isInfoEnabled())
                         hint = word1.sValue() + " < " + word2.sValue();
 
-                    if (word1.sValue().compareTo(word2.sValue()) == -1) {
+                    if (word1.sCompareTo(word2) < 0) {
                         word1.and(DataWord.ZERO);
                         word1.getData()[31] = 1;
                     } else {
@@ -318,14 +306,13 @@ public class VM {
                     program.step();
                 }	break;
                 case SGT:{
-                	// TODO: can be improved by not using BigInteger
                     DataWord word1 = program.stackPop();
                     DataWord word2 = program.stackPop();
 
                     if (logger.isInfoEnabled())
                         hint = word1.sValue() + " > " + word2.sValue();
 
-                    if (word1.sValue().compareTo(word2.sValue()) == 1) {
+                    if (word1.sCompareTo(word2) > 0) {
                         word1.and(DataWord.ZERO);
                         word1.getData()[31] = 1;
                     } else {
@@ -335,14 +322,13 @@ public class VM {
                     program.step();
                 }	break;
                 case GT:{
-                	// TODO: can be improved by not using BigInteger
                     DataWord word1 = program.stackPop();
                     DataWord word2 = program.stackPop();
 
                     if (logger.isInfoEnabled())
                         hint = word1.value() + " > " + word2.value();
 
-                    if (word1.value().compareTo(word2.value()) == 1) {
+                    if (word1.compareTo(word2) > 0) {
                         word1.and(DataWord.ZERO);
                         word1.getData()[31] = 1;
                     } else {
@@ -422,7 +408,7 @@ public class VM {
                 	DataWord word1 = program.stackPop();
                     DataWord word2 = program.stackPop();
                     DataWord result = null;
-                    if (word1.value().compareTo(_32_) == -1) {
+                    if (word1.compareTo(_32_) < 0) {
                         byte tmp = word2.getData()[word1.intValue()];
                         word2.and(DataWord.ZERO);
                         word2.getData()[31] = tmp;
@@ -642,17 +628,11 @@ public class VM {
                     program.step();
                 }	break;
                 case DUP:{
-                	DataWord word_1 =  program.stackPop();
-                    DataWord word_2 = word_1.clone();
-                    program.stackPush(word_1);
-                    program.stackPush(word_2);
+                	program.stackDup();
                     program.step();
                 }	break;
                 case SWAP:{
-                	DataWord word_1 =  program.stackPop();
-                    DataWord word_2 =  program.stackPop();
-                    program.stackPush(word_1);
-                    program.stackPush(word_2);
+                	program.stackSwap();
                     program.step();
                 }	break;
                 case MLOAD:{
@@ -761,10 +741,9 @@ public class VM {
                 case PUSH9:  case PUSH10: case PUSH11: case PUSH12: case PUSH13: case PUSH14: case PUSH15: case PUSH16:
                 case PUSH17: case PUSH18: case PUSH19: case PUSH20: case PUSH21: case PUSH22: case PUSH23: case PUSH24:
                 case PUSH25: case PUSH26: case PUSH27: case PUSH28: case PUSH29: case PUSH30: case PUSH31: case PUSH32:{
-                    program.step();
                     int nPush = op.val() - PUSH1.val() + 1;
 
-                    byte[] data = program.sweep(nPush);
+                    byte[] data = program.sweepPush(nPush);
                     hint = "" + Hex.toHexString(data);
 
                     program.stackPush(data);
@@ -851,11 +830,28 @@ public class VM {
             	logger.warn("OutOfGasException occurred", e);
             else
             	logger.error("VM halted", e);
+            program.refundPrepaidGas();
             program.stop();
             throw e;
         }
     }
 
+    /**
+     * @return offset + size, the end of the memory used by the op,
+     * 		Long.MAX_VALUE if it doesn't fit in a long
+     */
+    private static long memNeeded(DataWord offset, DataWord size) {
+        return memNeeded(offset, size.longValueSaturated());
+    }
+
+    private static long memNeeded(DataWord offset, long size) {
+        long start = offset.longValueSaturated();
+        if (start == Long.MAX_VALUE || size == Long.MAX_VALUE)
+            return Long.MAX_VALUE;
+        long end = start + size;
+        return end < 0 ? Long.MAX_VALUE : end;
+    }
+
     public void play(Program program) {
         try {
             // In case the program invoked by wire got
@@ -908,8 +904,9 @@ public class VM {
 			dumpLogger.trace("{} {} {} {}", addressString, pcString, opString, gasString);
     	} else if(CONFIG.dumpStyle().equals("pretty")) {
 			dumpLogger.trace("    STACK");
-			for (DataWord item : program.getStack()) {
-				dumpLogger.trace("{}", item);
+			Stack stack = program.getStack();
+			for (int i = 0; i < stack.size(); ++i) {
+				dumpLogger.trace("{}", stack.get(i));
 			}
 			dumpLogger.trace("    MEMORY");
 			String memoryString = program.memoryToString();
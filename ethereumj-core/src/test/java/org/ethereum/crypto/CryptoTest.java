@@ -89,4 +89,17 @@ public class CryptoTest {
         System.out.println(new BigInteger(Hex.decode("3913517ebd3c0c65000000")));
         System.out.println(Utils.getValueShortString(new BigInteger("69000000000000000000000000")));
     }
+
+    @Test /* the hash is not changed through the input or the result */
+    public void test10() {
+        byte[] input = "dog".getBytes();
+        byte[] result = HashUtil.sha3(input);
+        String expected = Hex.toHexString(result);
+        result[0] ^= 1;
+        assertEquals(expected, Hex.toHexString(HashUtil.sha3("dog".getBytes())));
+
+        input[0] = 'f';
+        assertEquals(expected, Hex.toHexString(HashUtil.sha3("dog".getBytes())));
+        assertNotSame(HashUtil.sha3(input), HashUtil.sha3(input));
+    }
 }
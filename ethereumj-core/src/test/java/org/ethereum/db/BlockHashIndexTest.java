@@ -0,0 +1,41 @@
+package org.ethereum.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.util.ByteUtil;
+import org.junit.Test;
+
+public class BlockHashIndexTest {
+
+    @Test // the slots of the other chunks, the empty slots and the replaced hash
+    public void testPutGet() {
+
+        BlockHashIndex index = new BlockHashIndex();
+        assertTrue(index.isEmpty());
+        assertNull(index.get(0));
+
+        for (long number : new long[] {0, 1, 16383, 16384, 100000})
+            index.put(number, HashUtil.sha3(ByteUtil.longToBytes(number)));
+
+        assertEquals(5, index.size());
+        for (long number : new long[] {0, 1, 16383, 16384, 100000})
+            assertArrayEquals(HashUtil.sha3(ByteUtil.longToBytes(number)), index.get(number));
+        assertNull(index.get(2));
+        assertNull(index.get(200000));
+        assertNull(index.get(-1));
+        assertFalse(index.contains(50000));
+
+        index.put(1, HashUtil.sha3(ByteUtil.longToBytes(7)));
+        assertEquals(5, index.size());
+        assertArrayEquals(HashUtil.sha3(ByteUtil.longToBytes(7)), index.get(1));
+
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertNull(index.get(0));
+    }
+}
@@ -0,0 +1,156 @@
+package org.ethereum.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.ethereum.crypto.HashUtil;
+import org.junit.After;
+import org.junit.Test;
+
+public class BlockStoreTest {
+
+    private File dir = new File("testBlockStore");
+
+    @After
+    public void destroy() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static byte[] block(int number) {
+        byte[] encoded = new byte[40 + number % 7];
+        encoded[0] = (byte) number;
+        return encoded;
+    }
+
+    private static BigInteger difficulty(long number) {
+        return BigInteger.valueOf(131072 * (number + 1));
+    }
+
+    @Test // the small segments roll over, the flushed blocks are found after the reopen
+    public void testPutGet() throws IOException {
+
+        KeyValueStore hashes = new MemoryStore();
+        BlockStore store = new BlockStore(dir, hashes, 100);
+        for (int i = 0; i < 50; ++i)
+            store.put(i, HashUtil.sha3(block(i)), block(i), difficulty(i));
+        store.flush();
+        store.put(50, HashUtil.sha3(block(50)), block(50), difficulty(50));
+
+        assertEquals(51, store.getCount());
+        assertArrayEquals(block(50), store.get(50));
+        assertEquals(50, store.getNumber(HashUtil.sha3(block(50))));
+
+        // the block 50 was not flushed
+        store = new BlockStore(dir, hashes, 100);
+        assertEquals(50, store.getCount());
+        assertNull(store.get(50));
+        assertEquals(-1, store.getNumber(HashUtil.sha3(block(50))));
+        for (int i = 0; i < 50; ++i) {
+            assertArrayEquals(block(i), store.get(i));
+            assertArrayEquals(HashUtil.sha3(block(i)), store.getHash(i));
+            assertEquals(i, store.getNumber(HashUtil.sha3(block(i))));
+        }
+
+        // the replaced block is not found by the old hash, the blocks after it are dropped
+        store.put(10, HashUtil.sha3(block(60)), block(60), difficulty(10));
+        assertArrayEquals(block(60), store.get(10));
+        assertEquals(-1, store.getNumber(HashUtil.sha3(block(10))));
+        assertEquals(11, store.getCount());
+        assertNull(store.get(11));
+        assertEquals(-1, store.getNumber(HashUtil.sha3(block(11))));
+        store.close();
+    }
+
+    @Test // the flushed blocks are replaced by the flush
+    public void testReplace() throws IOException {
+
+        KeyValueStore hashes = new MemoryStore();
+        BlockStore store = new BlockStore(dir, hashes, 100);
+        for (int i = 0; i < 20; ++i)
+            store.put(i, HashUtil.sha3(block(i)), block(i), difficulty(i));
+        store.flush();
+        store.put(5, HashUtil.sha3(block(65)), block(65), difficulty(5));
+        store.put(6, HashUtil.sha3(block(66)), block(66), difficulty(6));
+        assertArrayEquals(block(66), store.get(6));
+        assertEquals(6, store.getNumber(HashUtil.sha3(block(66))));
+
+        // not flushed, the old blocks are kept
+        store = new BlockStore(dir, hashes, 100);
+        assertEquals(20, store.getCount());
+        assertArrayEquals(block(5), store.get(5));
+        assertEquals(19, store.getNumber(HashUtil.sha3(block(19))));
+
+        store.put(5, HashUtil.sha3(block(65)), block(65), difficulty(5));
+        store.flush();
+        store = new BlockStore(dir, hashes, 100);
+        assertEquals(6, store.getCount());
+        assertArrayEquals(block(65), store.get(5));
+        assertEquals(5, store.getNumber(HashUtil.sha3(block(65))));
+        assertEquals(-1, store.getNumber(HashUtil.sha3(block(5))));
+        assertNull(hashes.get(HashUtil.sha3(block(19))));
+        store.close();
+    }
+
+    @Test(expected = IOException.class) // the blocks refer to the missing segment
+    public void testMissingSegment() throws IOException {
+
+        KeyValueStore hashes = new MemoryStore();
+        BlockStore store = new BlockStore(dir, hashes, 100);
+        for (int i = 0; i < 20; ++i)
+            store.put(i, HashUtil.sha3(block(i)), block(i), difficulty(i));
+        store.close();
+
+        new File(dir, "blocks-00001.seg").delete();
+        new BlockStore(dir, hashes, 100);
+    }
+
+    @Test // the head is saved by the flush together with the blocks
+    public void testHead() throws IOException {
+
+        KeyValueStore hashes = new MemoryStore();
+        BlockStore store = new BlockStore(dir, hashes, 1000);
+        assertNull(store.getStateRoot());
+        assertEquals(BigInteger.ZERO, store.getTotalDifficulty());
+
+        store.put(0, HashUtil.sha3(block(0)), block(0), difficulty(0));
+        store.setHead(HashUtil.sha3(block(10)));
+        store.flush();
+        store.put(1, HashUtil.sha3(block(1)), block(1), difficulty(1));
+        store.setHead(HashUtil.sha3(block(11)));
+        assertEquals(difficulty(1), store.getTotalDifficulty());
+
+        store = new BlockStore(dir, hashes, 1000);
+        assertEquals(1, store.getCount());
+        assertArrayEquals(HashUtil.sha3(block(10)), store.getStateRoot());
+        assertEquals(difficulty(0), store.getTotalDifficulty());
+        store.close();
+    }
+
+    @Test // the total difficulty is kept per block, the replaced block has its own
+    public void testReplaceDifficulty() throws IOException {
+
+        KeyValueStore hashes = new MemoryStore();
+        BlockStore store = new BlockStore(dir, hashes, 1000);
+        for (int i = 0; i < 10; ++i)
+            store.put(i, HashUtil.sha3(block(i)), block(i), difficulty(i));
+        store.flush();
+
+        BigInteger replaced = store.getTotalDifficulty(4).add(BigInteger.ONE);
+        store.put(5, HashUtil.sha3(block(65)), block(65), replaced);
+        assertEquals(replaced, store.getTotalDifficulty());
+        assertEquals(difficulty(4), store.getTotalDifficulty(4));
+        assertEquals(BigInteger.ZERO, store.getTotalDifficulty(6));
+
+        store.flush();
+        store = new BlockStore(dir, hashes, 1000);
+        assertEquals(replaced, store.getTotalDifficulty(5));
+        assertEquals(replaced, store.getTotalDifficulty());
+        store.close();
+    }
+}
@@ -1,12 +1,18 @@
 package org.ethereum.db;
 
 import org.ethereum.core.AccountState;
+import org.ethereum.core.Block;
+import org.ethereum.trie.MockDB;
 import org.ethereum.vm.DataWord;
 import org.junit.*;
 import org.junit.runners.MethodSorters;
 import org.spongycastle.util.encoders.Hex;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Arrays;
 
 import static org.junit.Assert.*;
 
@@ -360,4 +366,253 @@ public class RepositoryTest {
             origRepository.close();
         }
     }
+
+    @Test // storage hash after updates and deletes
+    public void test15() {
+
+        MockDB db = new MockDB();
+        ContractDetails details = new ContractDetails(db);
+        for (int i = 0; i < 300; ++i)
+            details.put(new DataWord(Hex.decode(String.format("ff%04x", 1000 + i))), new DataWord(i + 1));
+        for (int i = 0; i < 300; i += 3)
+            details.put(new DataWord(Hex.decode(String.format("ff%04x", 1000 + i))), new DataWord(0));
+        details.setCode(Hex.decode("6001"));
+        details.sync();
+
+        ContractDetails expected = new ContractDetails();
+        for (int i = 0; i < 300; ++i)
+            if (i % 3 != 0)
+                expected.put(new DataWord(Hex.decode(String.format("ff%04x", 1000 + i))), new DataWord(i + 1));
+
+        assertEquals(200, details.getStorage().size());
+        assertEquals(Hex.toHexString(expected.getStorageHash()), Hex.toHexString(details.getStorageHash()));
+
+        // only the storage root and the code hash are in the details
+        ContractDetails decoded = new ContractDetails(db, details.getEncoded());
+        assertTrue(details.getEncoded().length < 100);
+        assertEquals(Hex.toHexString(expected.getStorageHash()), Hex.toHexString(decoded.getStorageHash()));
+        assertEquals(new DataWord(2), decoded.get(new DataWord(Hex.decode(String.format("ff%04x", 1001)))));
+        assertNull(decoded.get(new DataWord(Hex.decode(String.format("ff%04x", 1000)))));
+        assertEquals("6001", Hex.toHexString(decoded.getCode()));
+        assertEquals(expected.getStorage(), decoded.getStorage());
+
+        // the details built from the rows
+        ContractDetails fromRows = new ContractDetails(expected.getStorage(), Hex.decode("6001"));
+        assertEquals(Hex.toHexString(details.getEncoded()), Hex.toHexString(fromRows.getEncoded()));
+    }
+
+    @Test // cached accounts, the commit of the track outdates the parent's cache
+    public void test16() {
+
+        String addr_1 = "cd2a3d9f938e13cd947ec05abc7fe734df8dd826";
+        String addr_2 = "77045e71a7a2c50903d88e564cd72fab11e82051";
+
+        RepositoryImpl repository = new RepositoryImpl();
+        try {
+            repository.addBalance(Hex.decode(addr_1), BigInteger.valueOf(100));
+            repository.addBalance(Hex.decode(addr_1), BigInteger.valueOf(20));
+            repository.increaseNonce(Hex.decode(addr_1));
+
+            // changing the returned state doesn't change the account
+            repository.getAccountState(Hex.decode(addr_1)).addToBalance(BigInteger.TEN);
+            assertEquals(120, repository.getBalance(Hex.decode(addr_1)).longValue());
+
+            RepositoryImpl track = repository.getTrack();
+            track.startTracking();
+            track.addBalance(Hex.decode(addr_1), BigInteger.valueOf(5));
+            track.addBalance(Hex.decode(addr_2), BigInteger.valueOf(7));
+            assertEquals(120, repository.getBalance(Hex.decode(addr_1)).longValue());
+            track.commit();
+
+            assertEquals(125, repository.getBalance(Hex.decode(addr_1)).longValue());
+            assertEquals(7, repository.getBalance(Hex.decode(addr_2)).longValue());
+
+            // the state root covers the cached changes
+            AccountState expected = new AccountState(BigInteger.ONE, BigInteger.valueOf(125));
+            assertEquals(Hex.toHexString(expected.getEncoded()),
+                    Hex.toHexString(repository.getWorldState().get(Hex.decode(addr_1))));
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test // the state moved by a snapshot
+    public void test17() throws IOException {
+
+        RepositoryImpl repository = new RepositoryImpl();
+        RepositoryImpl imported = new RepositoryImpl("snapshotChain", "snapshotDetails", "snapshotState", "snapshotStorage");
+        try {
+            for (int i = 0; i < 50; ++i) {
+                byte[] addr = Hex.decode(String.format("cd2a3d9f938e13cd947ec05abc7fe734df8d%04x", i));
+                repository.createAccount(addr);
+                repository.addBalance(addr, BigInteger.valueOf(1000 + i));
+                if (i % 5 == 0) {
+                    repository.saveCode(addr, Hex.decode(String.format("60%02x6000f2", i)));
+                    for (int j = 1; j <= 20; ++j)
+                        repository.addStorageRow(addr, new DataWord(j), new DataWord(i * 100 + j));
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(50, repository.exportState(out));
+
+            // the account out of the snapshot is removed by the import
+            byte[] oldAddr = Hex.decode("ab2a3d9f938e13cd947ec05abc7fe734df8d0001");
+            imported.createAccount(oldAddr);
+            imported.saveCode(oldAddr, Hex.decode("6001"));
+
+            byte[] root = imported.importState(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(Hex.toHexString(repository.getWorldState().getRootHash()), Hex.toHexString(root));
+            assertEquals(Hex.toHexString(root), Hex.toHexString(imported.getWorldState().getRootHash()));
+
+            byte[] addr = Hex.decode("cd2a3d9f938e13cd947ec05abc7fe734df8d000a");
+            assertEquals(1010, imported.getBalance(addr).longValue());
+            assertEquals("600a6000f2", Hex.toHexString(imported.getCode(addr)));
+            assertEquals(new DataWord(1007), imported.getStorageValue(addr, new DataWord(7)));
+            assertEquals(20, imported.getContractDetails(addr).getStorage().size());
+            assertNull(imported.getContractDetails(oldAddr));
+
+            // a damaged chunk is rejected
+            byte[] damaged = out.toByteArray();
+            damaged[damaged.length / 2] ^= 1;
+            try {
+                imported.importState(new ByteArrayInputStream(damaged));
+                fail("The damaged snapshot was imported");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("checksum"));
+            }
+
+            // a cut snapshot is rejected before any row is written
+            imported.addBalance(addr, BigInteger.ONE);
+            byte[] cut = Arrays.copyOf(out.toByteArray(), out.size() - 8);
+            try {
+                imported.importState(new ByteArrayInputStream(cut));
+                fail("The cut snapshot was imported");
+            } catch (IOException e) {
+            }
+            assertEquals(1011, imported.getBalance(addr).longValue());
+            assertEquals(new DataWord(1007), imported.getStorageValue(addr, new DataWord(7)));
+        } finally {
+            repository.close();
+            imported.close();
+        }
+    }
+
+    @Test // measures the bytes allocated per transaction of a block import
+    public void test18() {
+        boolean allocationsBenchmarkEnabled = false;
+
+        if (allocationsBenchmarkEnabled) {
+            com.sun.management.ThreadMXBean threadBean =
+                    (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+
+            RepositoryImpl repository = new RepositoryImpl();
+            try {
+                int accounts = 1000;
+                int transactions = 20000;
+                byte[][] addresses = new byte[accounts][];
+                DataWord[] words = new DataWord[16];
+                for (int i = 0; i < accounts; ++i)
+                    addresses[i] = Hex.decode(String.format("cd2a3d9f938e13cd947ec05abc7fe734df8d%04x", i));
+                for (int i = 0; i < words.length; ++i)
+                    words[i] = new DataWord(i);
+
+                for (int round = 0; round < 5; ++round) {
+                    long start = threadBean.getThreadAllocatedBytes(threadId);
+                    for (int i = 0; i < transactions; ++i) {
+                        // a transfer with a storage write, applied in a track like a transaction
+                        byte[] sender = addresses[i % accounts];
+                        byte[] receiver = addresses[(i * 7) % accounts];
+                        RepositoryImpl track = repository.getTrack();
+                        track.startTracking();
+                        track.increaseNonce(sender);
+                        track.addBalance(receiver, BigInteger.TEN);
+                        track.addStorageRow(receiver, words[i % 16], new DataWord(round * transactions + i));
+                        track.commit();
+                        if (i % 100 == 99)
+                            repository.getWorldState().getRootHash();
+                    }
+                    repository.flush();
+                    long bytes = threadBean.getThreadAllocatedBytes(threadId) - start;
+                    System.out.println(String.format("round: %d import: %d bytes/tx", round, bytes / transactions));
+                }
+            } finally {
+                repository.close();
+            }
+        }
+    }
+
+    @Test // the storage nodes are kept in memory until the flush, the rolled back rows are dropped
+    public void test19() {
+
+        RepositoryImpl repository = new RepositoryImpl();
+        try {
+            byte[] addr = Hex.decode("cd2a3d9f938e13cd947ec05abc7fe734df8d0aaa");
+            repository.createAccount(addr);
+            repository.addStorageRow(addr, new DataWord(1), new DataWord(11));
+
+            RepositoryImpl track = repository.getTrack();
+            track.startTracking();
+            track.addStorageRow(addr, new DataWord(2), new DataWord(22));
+            RepositoryImpl nested = track.getTrack();
+            nested.startTracking();
+            nested.addStorageRow(addr, new DataWord(3), new DataWord(33));
+            assertEquals(new DataWord(11), nested.getStorageValue(addr, new DataWord(1)));
+            nested.commit();
+            track.commit();
+
+            RepositoryImpl rolledBack = repository.getTrack();
+            rolledBack.startTracking();
+            rolledBack.addStorageRow(addr, new DataWord(4), new DataWord(44));
+            rolledBack.saveCode(addr, Hex.decode("6001"));
+            rolledBack.rollback();
+
+            assertEquals(3, repository.getContractDetails(addr).getStorage().size());
+            assertNull(repository.getStorageValue(addr, new DataWord(4)));
+            assertNull(repository.getCode(addr));
+
+            // the rollback of the repository keeps the rows changed before the tracking
+            repository.startTracking();
+            repository.addStorageRow(addr, new DataWord(1), new DataWord(111));
+            repository.addStorageRow(addr, new DataWord(5), new DataWord(55));
+            repository.rollback();
+            assertEquals(new DataWord(11), repository.getStorageValue(addr, new DataWord(1)));
+            assertNull(repository.getStorageValue(addr, new DataWord(5)));
+
+            // the details are read from the db after the flush
+            repository.flush();
+            assertEquals(new DataWord(33), repository.getStorageValue(addr, new DataWord(3)));
+            assertEquals(3, repository.getContractDetails(addr).getStorage().size());
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test // the replaced block adds its difficulty to the parent, not to the replaced chain
+    public void test20() {
+
+        RepositoryImpl repository = new RepositoryImpl();
+        try {
+            for (int i = 0; i < 5; ++i)
+                repository.saveBlock(createBlock(i, 1000));
+            assertEquals(BigInteger.valueOf(5000), repository.getTotalDifficulty());
+
+            repository.saveBlock(createBlock(3, 3000));
+            assertEquals(4, repository.getBlockCount());
+            assertEquals(BigInteger.valueOf(6000), repository.getTotalDifficulty());
+
+            repository.flush();
+            repository.saveBlock(createBlock(2, 500));
+            assertEquals(BigInteger.valueOf(2500), repository.getTotalDifficulty());
+        } finally {
+            repository.close();
+        }
+    }
+
+    private static Block createBlock(long number, long difficulty) {
+        Block block = new Block(new byte[32], new byte[32], new byte[20],
+                BigInteger.valueOf(difficulty).toByteArray(), number, 0, 0, 0, 0, null, null, null, null);
+        block.setStateRoot(new byte[32]);
+        return block;
+    }
 }
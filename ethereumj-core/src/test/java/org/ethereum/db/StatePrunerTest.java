@@ -0,0 +1,108 @@
+package org.ethereum.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.trie.Trie;
+import org.junit.Test;
+
+public class StatePrunerTest {
+
+    private static String LONG_STRING = "1234567890abcdefghijklmnopqrstuvwxxzABCEFGHIJKLMNOPQRSTUVWXYZ";
+
+    @Test // keep the last 2 roots, the older states are removed
+    public void testPrune() {
+
+        DatabaseImpl db = new DatabaseImpl("testPrune");
+        StatePruner pruner = new StatePruner(db.getDb(), 2, Integer.MAX_VALUE);
+        try {
+            Trie trie = new Trie(db.getDb());
+            List<byte[]> roots = new ArrayList<>();
+
+            for (int round = 0; round < 10; ++round) {
+                for (int i = 0; i < 100; ++i)
+                    trie.update("key" + i, LONG_STRING + round);
+                pruner.sync(trie);
+                roots.add(trie.getRootHash());
+            }
+
+            pruner.prune();
+            assertTrue(pruner.getRemovedNodes() > 0);
+            assertTrue(pruner.getReclaimedBytes() > 0);
+
+            assertNull(db.get(roots.get(0)));
+            assertNull(db.get(roots.get(7)));
+            for (int round = 8; round < 10; ++round) {
+                assertNotNull(db.get(roots.get(round)));
+                Trie state = new Trie(db.getDb(), roots.get(round));
+                for (int i = 0; i < 100; ++i)
+                    assertEquals(LONG_STRING + round, new String(state.get("key" + i)));
+            }
+
+            // nothing more to remove
+            long removed = pruner.getRemovedNodes();
+            pruner.prune();
+            assertEquals(removed, pruner.getRemovedNodes());
+        } finally {
+            pruner.close();
+            db.close();
+        }
+    }
+
+    @Test // the storage and the code of the dropped states are removed, the roots are kept by the restart
+    public void testPruneStorage() {
+
+        DatabaseImpl db = new DatabaseImpl("testPruneState");
+        DatabaseImpl storageDb = new DatabaseImpl("testPruneStorage");
+        StatePruner pruner = new StatePruner(db.getDb(), storageDb.getDb(), 2, Integer.MAX_VALUE);
+        try {
+            Trie trie = new Trie(db.getDb());
+            Trie storage = new Trie(storageDb.getDb());
+            List<byte[]> storageRoots = new ArrayList<>();
+            List<byte[]> codeHashes = new ArrayList<>();
+
+            for (int round = 0; round < 5; ++round) {
+                for (int i = 0; i < 100; ++i)
+                    storage.update("key" + i, LONG_STRING + round);
+                storage.sync();
+                byte[] code = (LONG_STRING + round).getBytes();
+                storageDb.put(HashUtil.sha3(code), code);
+
+                AccountState account = new AccountState();
+                account.setStateRoot(storage.getRootHash());
+                account.setCodeHash(HashUtil.sha3(code));
+                trie.update("account".getBytes(), account.getEncoded());
+                pruner.sync(trie);
+                storageRoots.add(storage.getRootHash());
+                codeHashes.add(HashUtil.sha3(code));
+            }
+
+            pruner.close();
+            pruner = new StatePruner(db.getDb(), storageDb.getDb(), 2, Integer.MAX_VALUE);
+            pruner.prune();
+            assertTrue(pruner.getRemovedNodes() > 0);
+
+            for (int round = 0; round < 3; ++round) {
+                assertNull(storageDb.get(storageRoots.get(round)));
+                assertNull(storageDb.get(codeHashes.get(round)));
+            }
+            for (int round = 3; round < 5; ++round) {
+                assertNotNull(storageDb.get(codeHashes.get(round)));
+                Trie state = new Trie(storageDb.getDb(), storageRoots.get(round));
+                for (int i = 0; i < 100; ++i)
+                    assertEquals(LONG_STRING + round, new String(state.get("key" + i)));
+            }
+        } finally {
+            pruner.close();
+            db.close();
+            storageDb.close();
+        }
+    }
+}
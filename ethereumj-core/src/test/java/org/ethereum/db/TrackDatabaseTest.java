@@ -4,6 +4,8 @@ import static org.iq80.leveldb.impl.Iq80DBFactory.factory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.iq80.leveldb.Options;
 import org.junit.AfterClass;
@@ -49,6 +51,97 @@ public class TrackDatabaseTest {
         db1.close();
     }
     
+    @Test // nested tracks, the deleted key can be put again
+    public void testNestedTrack() {
+
+        DatabaseImpl db1 = new DatabaseImpl("temp");
+        db1.put(Hex.decode("abcdef"), Hex.decode("abcdef"));
+        TrackDatabase parent = new TrackDatabase(db1);
+        parent.startTrack();
+
+        TrackDatabase child = new TrackDatabase(parent);
+        child.startTrack();
+        child.delete(Hex.decode("abcdef"));
+        assertNull(child.get(Hex.decode("abcdef")));
+        child.put(Hex.decode("abcdef"), Hex.decode("ffffff"));
+        child.put(Hex.decode("aaaaaa"), Hex.decode("bbbbbb"));
+        assertEquals("ffffff", Hex.toHexString(child.get(Hex.decode("abcdef"))));
+        assertEquals("abcdef", Hex.toHexString(parent.get(Hex.decode("abcdef"))));
+        child.commitTrack();
+
+        assertEquals("ffffff", Hex.toHexString(parent.get(Hex.decode("abcdef"))));
+        assertEquals("abcdef", Hex.toHexString(db1.get(Hex.decode("abcdef"))));
+
+        TrackDatabase rolledBack = new TrackDatabase(parent);
+        rolledBack.startTrack();
+        rolledBack.delete(Hex.decode("aaaaaa"));
+        rolledBack.rollbackTrack();
+        assertEquals("bbbbbb", Hex.toHexString(parent.get(Hex.decode("aaaaaa"))));
+
+        parent.delete(Hex.decode("abcdef"));
+        parent.commitTrack();
+        assertNull(db1.get(Hex.decode("abcdef")));
+        assertEquals("bbbbbb", Hex.toHexString(db1.get(Hex.decode("aaaaaa"))));
+
+        db1.close();
+    }
+
+    @Test
+    public void testBatch() {
+
+        DatabaseImpl db1 = new DatabaseImpl("temp");
+        db1.put(Hex.decode("abcdef"), Hex.decode("abcdef"));
+
+        db1.startBatch();
+        db1.put(Hex.decode("abcdef"), Hex.decode("ffffff"));
+        db1.put(Hex.decode("aaaaaa"), Hex.decode("bbbbbb"));
+        assertEquals("ffffff", Hex.toHexString(db1.get(Hex.decode("abcdef"))));
+        assertEquals("abcdef", Hex.toHexString(db1.getDb().get(Hex.decode("abcdef"))));
+        assertNull(db1.getDb().get(Hex.decode("aaaaaa")));
+
+        db1.commitBatch();
+        assertEquals("ffffff", Hex.toHexString(db1.getDb().get(Hex.decode("abcdef"))));
+        assertEquals("bbbbbb", Hex.toHexString(db1.getDb().get(Hex.decode("aaaaaa"))));
+
+        db1.delete(Hex.decode("aaaaaa"));
+        assertNull(db1.get(Hex.decode("aaaaaa")));
+        assertNotNull(db1.getDb().get(Hex.decode("aaaaaa")));
+
+        db1.close();
+    }
+
+    @Test // both engines: the batch deletes by null, the snapshot doesn't see later writes
+    public void testKeyValueStores() throws IOException {
+
+        KeyValueStore[] stores = {new MemoryStore(), new LevelDbStore(new File("temp-store"))};
+        for (KeyValueStore store : stores) {
+            store.put(Hex.decode("cc"), Hex.decode("03"));
+            store.put(Hex.decode("aa"), Hex.decode("01"));
+
+            Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+            batch.put(new ByteArrayWrapper(Hex.decode("bb")), Hex.decode("02"));
+            batch.put(new ByteArrayWrapper(Hex.decode("cc")), null);
+            store.write(batch);
+
+            KeyValueStore.Snapshot snapshot = store.getSnapshot();
+            store.put(Hex.decode("dd"), Hex.decode("04"));
+            assertNull(store.get(Hex.decode("cc")));
+            assertNull(snapshot.get(Hex.decode("dd")));
+            assertEquals("04", Hex.toHexString(store.get(Hex.decode("dd"))));
+
+            StringBuilder keys = new StringBuilder();
+            KeyValueStore.RowIterator iterator = snapshot.iterator();
+            while (iterator.hasNext())
+                keys.append(Hex.toHexString(iterator.next().getKey()));
+            iterator.close();
+            snapshot.close();
+            assertEquals("aabb", keys.toString());
+
+            store.close();
+        }
+        LevelDbStore.destroy(new File("temp-store"));
+    }
+
     @AfterClass
 	public static void destroyDB() {
 		try {
@@ -3,6 +3,7 @@ package org.ethereum.trie;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -16,10 +17,15 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 
 import org.ethereum.core.AccountState;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.DatabaseImpl;
+import org.ethereum.util.ByteUtil;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -415,6 +421,101 @@ public class TrieTest {
         assertEquals("Expected no nodes after undo", 0, trie.getCache().getNodes().size());
     }
 
+    @Test
+    public void testBoundedCacheEviction() {
+        Trie trie = new Trie(mockDb);
+        trie.setCache(new Cache(mockDb, 4096));
+
+        for (int i = 0; i < 200; ++i)
+            trie.update("key" + i, LONG_STRING + i);
+
+        int dirtyNodes = trie.getCache().getNodes().size();
+        assertEquals("Expected dirty nodes to be pinned", 0, trie.getCache().getEvictions());
+
+        trie.sync();
+        assertTrue("Expected clean nodes to be evicted", trie.getCache().getEvictions() > 0);
+        assertTrue(trie.getCache().getNodes().size() < dirtyNodes);
+        assertTrue(trie.getCache().getCachedSize() <= 4096);
+
+        for (int i = 0; i < 200; ++i)
+            assertEquals(LONG_STRING + i, new String(trie.get("key" + i)));
+        assertTrue(trie.getCache().getMisses() > 0);
+        assertTrue(trie.getCache().getCachedSize() <= 4096);
+    }
+
+    @Test
+    public void testTypedNodes() {
+        Trie trie = new Trie(mockDb);
+        trie.update(dog, LONG_STRING);
+        trie.update(doge, LONG_STRING);
+        trie.update(test, LONG_STRING);
+
+        TrieNode root = trie.getCache().get(trie.getRootHash());
+        assertTrue(root instanceof ExtensionNode || root instanceof BranchNode);
+        // the encoding and the hash are kept with the node
+        assertTrue(root.getEncoded() == root.getEncoded());
+        assertTrue(root.getHash() == root.getHash());
+
+        TrieNode decoded = TrieNode.fromRlpEncoded(root.getEncoded());
+        assertEquals(Hex.toHexString(root.getHash()), Hex.toHexString(decoded.getHash()));
+
+        // the update creates a new root, the other keys stay in place
+        trie.sync();
+        trie.update(test, LONG_STRING + "x");
+        TrieNode leaf = trie.getCache().get(((HashRef) trie.getRoot()).getHash());
+        assertTrue(leaf != null && leaf != root);
+        assertEquals(LONG_STRING, new String(trie.get(doge)));
+        assertEquals(LONG_STRING + "x", new String(trie.get(test)));
+    }
+
+    @Test
+    public void testLazyHash() {
+        Trie trie = new Trie(mockDb);
+        Trie lazyTrie = new Trie(mockDb_2);
+        lazyTrie.setLazyHash(true);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; ++i) {
+            String key = "key" + random.nextInt(300);
+            if (random.nextInt(4) == 0) {
+                trie.delete(key);
+                lazyTrie.delete(key);
+            } else {
+                trie.update(key, LONG_STRING + i);
+                lazyTrie.update(key, LONG_STRING + i);
+            }
+            if (i % 100 == 0)
+                assertEquals(Hex.toHexString(trie.getRootHash()), Hex.toHexString(lazyTrie.getRootHash()));
+        }
+        assertEquals("Expected no nodes before sync", 0, lazyTrie.getCache().getNodes().size());
+
+        lazyTrie.sync();
+        assertEquals(Hex.toHexString(trie.getRootHash()), Hex.toHexString(lazyTrie.getRootHash()));
+
+        Trie trie2 = new Trie(mockDb_2, lazyTrie.getRootHash());
+        for (int i = 0; i < 300; ++i)
+            assertEquals(new String(trie.get("key" + i)), new String(trie2.get("key" + i)));
+    }
+
+    @Test // the pending nodes of the lazy mode are kept when the root is set
+    public void testLazyHashSetRoot() {
+        MockDB db = new MockDB();
+        Trie trie = new Trie(db);
+        trie.setLazyHash(true);
+        for (int i = 0; i < 100; ++i)
+            trie.update("key" + i, LONG_STRING + i);
+
+        byte[] rootHash = trie.getRootHash();
+        trie.setRoot(rootHash);
+        for (int i = 0; i < 100; ++i)
+            assertEquals(LONG_STRING + i, new String(trie.get("key" + i)));
+
+        trie.sync();
+        assertEquals(Hex.toHexString(rootHash), Hex.toHexString(trie.getRootHash()));
+        Trie loaded = new Trie(db, rootHash);
+        assertEquals(LONG_STRING + 99, new String(loaded.get("key99")));
+    }
+
     @Test
     public void testTrieCopy() {
         Trie trie = new Trie(mockDb);
@@ -425,6 +526,164 @@ public class TrieTest {
         assertTrue(trie.cmp(trie2));
     }
 
+    @Test // the copy shares the nodes, the changes of one trie don't reach the other
+    public void testTrieCopyIsolation() {
+        for (boolean lazy : new boolean[] {false, true}) {
+            MockDB db = new MockDB();
+            Trie trie = new Trie(db);
+            trie.setLazyHash(lazy);
+            for (int i = 0; i < 100; ++i)
+                trie.update("key" + i, LONG_STRING + i);
+            trie.sync();
+            trie.update("dirty", LONG_STRING);
+
+            Trie trie2 = trie.copy();
+            byte[] rootHash = trie.getRootHash();
+            trie2.update("key1", "changed");
+            trie2.delete("key2");
+            assertEquals(LONG_STRING + 1, new String(trie.get("key1")));
+            assertEquals(LONG_STRING + 2, new String(trie.get("key2")));
+            assertEquals(Hex.toHexString(rootHash), Hex.toHexString(trie.getRootHash()));
+
+            // the dirty node of the original is saved by the copy
+            trie.undo();
+            trie2.sync();
+            Trie loaded = new Trie(db, trie2.getRootHash());
+            assertEquals(LONG_STRING, new String(loaded.get("dirty")));
+            assertEquals("changed", new String(loaded.get("key1")));
+            assertEquals(LONG_STRING + 3, new String(loaded.get("key3")));
+        }
+    }
+
+    @Test // the committed copy reads the db instead of the cache it was copied from
+    public void testTrieCopyCommit() {
+        MockDB db = new MockDB();
+        Trie trie = new Trie(db);
+        for (int i = 0; i < 100; ++i)
+            trie.update("key" + i, LONG_STRING + i);
+        trie.sync();
+
+        Trie trie2 = trie.copy();
+        trie2.update("key1", "changed");
+        trie2.sync();
+        int cached = trie2.getCache().getNodes().size();
+        assertEquals(LONG_STRING + 50, new String(trie2.get("key50")));
+        assertTrue(trie2.getCache().getNodes().size() > cached);
+        assertEquals("changed", new String(trie2.get("key1")));
+    }
+
+    @Test // the values are checked against the root hash without the db
+    public void testProof() {
+        for (boolean lazy : new boolean[] {false, true}) {
+            Trie trie = new Trie(new MockDB());
+            trie.setLazyHash(lazy);
+            for (int i = 0; i < 200; ++i)
+                trie.update("key" + i, LONG_STRING + i);
+            trie.update("ke", "short");
+            byte[] rootHash = trie.getRootHash();
+
+            for (int i = 0; i < 200; i += 7) {
+                List<byte[]> proof = trie.getProof(("key" + i).getBytes());
+                assertEquals(LONG_STRING + i, new String(Trie.verifyProof(rootHash, ("key" + i).getBytes(), proof)));
+            }
+            assertEquals("short", new String(Trie.verifyProof(rootHash, "ke".getBytes(), trie.getProof("ke".getBytes()))));
+
+            // the absence is proved as well
+            List<byte[]> proof = trie.getProof("key1000".getBytes());
+            assertEquals(0, Trie.verifyProof(rootHash, "key1000".getBytes(), proof).length);
+
+            // the proof of another root or an incomplete proof is rejected
+            proof = trie.getProof("key1".getBytes());
+            assertNull(Trie.verifyProof(HashUtil.sha3("root".getBytes()), "key1".getBytes(), proof));
+            assertNull(Trie.verifyProof(rootHash, "key1".getBytes(), proof.subList(0, proof.size() - 1)));
+        }
+    }
+
+    @Test // the sorted keys give the same root as the updates
+    public void testTrieBuilder() {
+        Random random = new Random(7);
+        TreeMap<ByteArrayWrapper, byte[]> rows = new TreeMap<>();
+        for (int i = 0; i < 2000; ++i) {
+            byte[] key = new byte[1 + random.nextInt(4)];
+            random.nextBytes(key);
+            String value = LONG_STRING.substring(0, 1 + random.nextInt(40));
+            rows.put(new ByteArrayWrapper(key), value.getBytes());
+        }
+        rows.put(new ByteArrayWrapper("dog".getBytes()), "puppy".getBytes());
+        rows.put(new ByteArrayWrapper("doge".getBytes()), LONG_STRING.getBytes());
+
+        Trie trie = new Trie(new MockDB());
+        MockDB db = new MockDB();
+        TrieBuilder builder = new TrieBuilder(db);
+        for (ByteArrayWrapper key : rows.keySet()) {
+            trie.update(key.getData(), rows.get(key));
+            builder.add(key.getData(), rows.get(key));
+        }
+        byte[] root = builder.build();
+        assertEquals(Hex.toHexString(trie.getRootHash()), Hex.toHexString(root));
+
+        Trie loaded = new Trie(db, root);
+        for (ByteArrayWrapper key : rows.keySet())
+            assertEquals(Hex.toHexString(rows.get(key)), Hex.toHexString(loaded.get(key.getData())));
+
+        // a single key and no keys
+        builder = new TrieBuilder(db);
+        builder.add("doe".getBytes(), "reindeer".getBytes());
+        assertEquals("11a0327cfcc5b7689b6b6d727e1f5f8846c1137caaa9fc871ba31b7cce1b703e", Hex.toHexString(builder.build()));
+        assertEquals(0, new TrieBuilder(db).build().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrieBuilderUnsorted() {
+        TrieBuilder builder = new TrieBuilder(new MockDB());
+        builder.add("dog".getBytes(), "puppy".getBytes());
+        builder.add("doe".getBytes(), "reindeer".getBytes());
+    }
+
+    @Test // ordered iteration, by prefix and without caching the nodes
+    public void testTrieIterator() {
+        MockDB db = new MockDB();
+        Trie trie = new Trie(db);
+        TreeMap<ByteArrayWrapper, byte[]> rows = new TreeMap<>();
+        for (int i = 0; i < 500; ++i) {
+            byte[] key = ("key" + i).getBytes();
+            trie.update(key, (LONG_STRING + i).getBytes());
+            rows.put(new ByteArrayWrapper(key), (LONG_STRING + i).getBytes());
+        }
+        trie.update("ke", "short");
+        rows.put(new ByteArrayWrapper("ke".getBytes()), "short".getBytes());
+        trie.sync();
+
+        Trie loaded = new Trie(db, trie.getRootHash());
+        Iterator<ByteArrayWrapper> expected = rows.keySet().iterator();
+        TrieIterator iterator = loaded.getIterator(ByteUtil.EMPTY_BYTE_ARRAY, false);
+        while (iterator.hasNext()) {
+            Map.Entry<byte[], byte[]> entry = iterator.next();
+            ByteArrayWrapper key = expected.next();
+            assertEquals(key.toString(), Hex.toHexString(entry.getKey()));
+            assertEquals(new String(rows.get(key)), new String(entry.getValue()));
+        }
+        assertFalse(expected.hasNext());
+        assertEquals(0, loaded.getCache().getNodes().size());
+
+        int count = 0;
+        for (iterator = loaded.getIterator("key4".getBytes(), true); iterator.hasNext(); ++count)
+            assertTrue(new String(iterator.next().getKey()).startsWith("key4"));
+        assertEquals(111, count);
+        assertTrue(loaded.getCache().getNodes().size() > 0);
+
+        assertFalse(loaded.getIterator("kez".getBytes(), false).hasNext());
+        assertEquals(1, countValues(loaded.getIterator("key499".getBytes(), false)));
+        assertEquals(501, countValues(loaded.getIterator("k".getBytes(), false)));
+    }
+
+    private int countValues(Iterator<?> iterator) {
+        int count = 0;
+        for (; iterator.hasNext(); iterator.next())
+            ++count;
+        return count;
+    }
+
     @Test
     public void testTrieUndo() {
         Trie trie = new Trie(mockDb);
@@ -635,7 +894,7 @@ public class TrieTest {
 
         System.out.println( "root_2:  => " + Hex.toHexString( trie2.getRootHash() ));
 
-        assertEquals(trieSingle.getRootHash(), trie2.getRootHash());
+        assertEquals(Hex.toHexString(trieSingle.getRootHash()), Hex.toHexString(trie2.getRootHash()));
 
     }
     
@@ -815,4 +1074,95 @@ public class TrieTest {
         Assert.assertEquals("8bd5544747b4c44d1274aa99a6293065fe319b3230e800203317e4c75a770099", Hex.toHexString( trie.getRootHash() ));
     }
 
+    @Test // measures the bytes allocated per get/update
+    public void testAllocationsBenchmark() {
+        boolean allocationsBenchmarkEnabled = false;
+
+        if (allocationsBenchmarkEnabled) {
+            com.sun.management.ThreadMXBean threadBean =
+                    (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+
+            int size = 10000;
+            byte[][] keys = new byte[size][];
+            Random generator = new Random(0);
+            for (int i = 0; i < size; ++i) {
+                keys[i] = new byte[20];
+                generator.nextBytes(keys[i]);
+            }
+
+            Trie trie = new Trie(mockDb);
+            for (int round = 0; round < 3; ++round) {
+
+                long start = threadBean.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < size; ++i)
+                    trie.update(keys[i], LONG_STRING.getBytes());
+                long updateBytes = threadBean.getThreadAllocatedBytes(threadId) - start;
+
+                start = threadBean.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < size; ++i)
+                    trie.get(keys[i]);
+                long getBytes = threadBean.getThreadAllocatedBytes(threadId) - start;
+
+                System.out.println(String.format("round: %d update: %d bytes/op, get: %d bytes/op",
+                        round, updateBytes / size, getBytes / size));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelHash() {
+        Trie trie = new Trie(mockDb);
+        trie.setLazyHash(true);
+        trie.setParallelHashThreshold(0);
+        Trie parallelTrie = new Trie(mockDb_2);
+        parallelTrie.setLazyHash(true);
+        parallelTrie.setParallelHashThreshold(1);
+
+        Random generator = new Random(0);
+        for (int round = 0; round < 3; ++round) {
+            for (int i = 0; i < 5000; ++i) {
+                byte[] key = new byte[20];
+                generator.nextBytes(key);
+                trie.update(key, LONG_STRING.getBytes());
+                parallelTrie.update(key, LONG_STRING.getBytes());
+            }
+            assertEquals(Hex.toHexString(trie.getRootHash()), Hex.toHexString(parallelTrie.getRootHash()));
+        }
+    }
+
+    @Test // sequential vs parallel root hash of a big trie
+    public void testParallelHashBenchmark() {
+
+        boolean parallelHashBenchmarkEnabled = false;
+
+        if (parallelHashBenchmarkEnabled) {
+            int size = 1000000;
+            byte[][] keys = new byte[size][];
+            Random generator = new Random(0);
+            for (int i = 0; i < size; ++i) {
+                keys[i] = new byte[32];
+                generator.nextBytes(keys[i]);
+            }
+
+            for (int round = 0; round < 3; ++round) {
+                long[] time = new long[2];
+                byte[][] rootHash = new byte[2][];
+                for (int parallel = 0; parallel < 2; ++parallel) {
+                    Trie trie = new Trie(null);
+                    trie.setLazyHash(true);
+                    trie.setParallelHashThreshold(parallel);
+                    for (int i = 0; i < size; ++i)
+                        trie.update(keys[i], LONG_STRING.getBytes());
+
+                    long start = System.nanoTime();
+                    rootHash[parallel] = trie.getRootHash();
+                    time[parallel] = System.nanoTime() - start;
+                }
+                assertTrue(Arrays.equals(rootHash[0], rootHash[1]));
+                System.out.println(String.format("round: %d sequential: %d ms, parallel: %d ms",
+                        round, time[0] / 1000000, time[1] / 1000000));
+            }
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package org.ethereum.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.junit.Test;
+
+public class ByteArrayMapTest {
+
+    @Test // random puts and removes against the HashMap of the wrappers
+    public void testAgainstHashMap() {
+
+        Random generator = new Random(0);
+        ByteArrayMap<Integer> map = new ByteArrayMap<>();
+        Map<ByteArrayWrapper, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 50000; ++i) {
+            // few short keys so the same keys come again, the lengths are not a multiple of 8
+            byte[] key = new byte[1 + generator.nextInt(3) * 10];
+            key[0] = (byte) generator.nextInt(64);
+            if (key.length > 1) key[key.length - 1] = (byte) generator.nextInt(64);
+
+            if (generator.nextInt(3) == 0) {
+                assertEquals(expected.remove(new ByteArrayWrapper(key)), map.remove(key.clone()));
+            } else {
+                assertEquals(expected.put(new ByteArrayWrapper(key), i), map.put(key, i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (Map.Entry<ByteArrayWrapper, Integer> entry : expected.entrySet())
+            assertEquals(entry.getValue(), map.get(entry.getKey().getData().clone()));
+        int count = 0;
+        for (Map.Entry<byte[], Integer> entry : map.entrySet()) {
+            assertEquals(expected.get(new ByteArrayWrapper(entry.getKey())), entry.getValue());
+            ++count;
+        }
+        assertEquals(expected.size(), count);
+    }
+
+    @Test // the removal by the iterator, the cleared map
+    public void testIteratorRemove() {
+
+        ByteArrayMap<byte[]> map = new ByteArrayMap<>();
+        for (int i = 0; i < 1000; ++i)
+            map.put(ByteUtil.longToBytes(i), ByteUtil.longToBytes(i * 2));
+
+        Iterator<Map.Entry<byte[], byte[]>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<byte[], byte[]> entry = iterator.next();
+            if ((entry.getKey()[7] & 1) == 1)
+                iterator.remove();
+        }
+        assertEquals(500, map.size());
+        assertNull(map.get(ByteUtil.longToBytes(1)));
+        assertArrayEquals(ByteUtil.longToBytes(8), map.get(ByteUtil.longToBytes(4)));
+        assertTrue(map.containsKey(ByteUtil.longToBytes(998)));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(ByteUtil.longToBytes(4)));
+        map.put(ByteUtil.longToBytes(4), ByteUtil.longToBytes(5));
+        assertArrayEquals(ByteUtil.longToBytes(5), map.get(ByteUtil.longToBytes(4)));
+    }
+}
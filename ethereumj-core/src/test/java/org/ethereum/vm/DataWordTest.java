@@ -2,6 +2,12 @@ package org.ethereum.vm;
 
 import static org.junit.Assert.*;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ethereum.util.ByteUtil;
 import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
 
@@ -88,4 +94,155 @@ public class DataWordTest {
 		assertEquals(32, y.getData().length);
 		assertEquals(expected, Hex.toHexString(y.getData()));
 	}
+
+	private static final BigInteger MODULUS = BigInteger.ONE.shiftLeft(256);
+
+	private static DataWord word(BigInteger value) {
+		return new DataWord(ByteUtil.bigIntegerToBytes(value.mod(MODULUS), 32));
+	}
+
+	/* the edge values and the random values of all the lengths */
+	private static List<BigInteger> samples() {
+		List<BigInteger> values = new ArrayList<>();
+		BigInteger max = MODULUS.subtract(BigInteger.ONE);
+		for (int bits = 0; bits <= 256; bits += 32) {
+			BigInteger power = BigInteger.ONE.shiftLeft(bits);
+			values.add(power.mod(MODULUS));
+			values.add(power.subtract(BigInteger.ONE));
+			values.add(power.add(BigInteger.ONE).mod(MODULUS));
+		}
+		values.add(BigInteger.valueOf(2));
+		values.add(BigInteger.valueOf(3));
+		values.add(BigInteger.ONE.shiftLeft(255));
+		values.add(BigInteger.ONE.shiftLeft(255).subtract(BigInteger.ONE));
+		values.add(max.subtract(BigInteger.ONE));
+		values.add(max.shiftRight(1).xor(BigInteger.ONE.shiftLeft(200)));
+
+		Random random = new Random(13);
+		for (int i = 0; i < 60; ++i)
+			values.add(new BigInteger(1 + random.nextInt(256), random));
+		return values;
+	}
+
+	@Test // the limb arithmetic against the BigInteger arithmetic modulo 2^256
+	public void testArithmeticAgainstBigInteger() {
+		List<BigInteger> values = samples();
+		for (BigInteger a : values) {
+			for (BigInteger b : values) {
+				BigInteger sa = word(a).sValue();
+				BigInteger sb = word(b).sValue();
+				String args = a.toString(16) + ", " + b.toString(16);
+
+				DataWord x = word(a);
+				x.add(word(b));
+				assertEquals("add " + args, word(a.add(b)), x);
+
+				x = word(a);
+				x.add2(word(b));
+				assertEquals("add2 " + args, word(a.add(b)), x);
+
+				x = word(a);
+				x.sub(word(b));
+				assertEquals("sub " + args, word(a.subtract(b)), x);
+
+				x = word(a);
+				x.mul(word(b));
+				assertEquals("mul " + args, word(a.multiply(b)), x);
+
+				x = word(a);
+				x.div(word(b));
+				assertEquals("div " + args, word(b.signum() == 0 ? BigInteger.ZERO : a.divide(b)), x);
+
+				x = word(a);
+				x.mod(word(b));
+				assertEquals("mod " + args, word(b.signum() == 0 ? BigInteger.ZERO : a.mod(b)), x);
+
+				x = word(a);
+				x.sDiv(word(b));
+				assertEquals("sDiv " + args, word(sb.signum() == 0 ? BigInteger.ZERO : sa.divide(sb)), x);
+
+				x = word(a);
+				x.sMod(word(b));
+				assertEquals("sMod " + args, word(sb.signum() <= 0 ? BigInteger.ZERO : sa.mod(sb)), x);
+
+				x = word(a);
+				x.exp(word(b));
+				assertEquals("exp " + args, word(a.modPow(b, MODULUS)), x);
+
+				assertEquals("compareTo " + args, a.compareTo(b), Integer.signum(word(a).compareTo(word(b))));
+				assertEquals("sCompareTo " + args, sa.compareTo(sb), Integer.signum(word(a).sCompareTo(word(b))));
+			}
+			DataWord x = word(a);
+			assertEquals(a.intValue(), x.intValue());
+			assertEquals(a.bitLength() < 64 ? a.longValue() : Long.MAX_VALUE, x.longValueSaturated());
+			if (a.bitLength() < 64)
+				assertEquals(a.longValue(), x.longValue());
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testLongValueOverflow() {
+		word(BigInteger.ONE.shiftLeft(63)).longValue();
+	}
+
+	@Test // the time per op of the limb arithmetic and of the BigInteger arithmetic
+	public void testArithmeticPerformance() {
+		boolean enabled = false;
+
+		if (enabled) {
+			String[] ops = { "add", "sub", "mul", "div", "sDiv", "mod", "sMod", "exp" };
+			List<DataWord> words = new ArrayList<>();
+			for (BigInteger value : samples())
+				words.add(word(value));
+			int ITERATIONS = 100;
+			long count = (long) ITERATIONS * words.size() * words.size();
+
+			for (String op : ops) {
+				long now1 = System.nanoTime();
+				for (int i = 0; i < ITERATIONS; i++)
+					for (DataWord a : words)
+						for (DataWord b : words)
+							apply(op, a.clone(), b);
+				System.out.println(op + ": " + (System.nanoTime() - now1) / count + "ns");
+
+				long now2 = System.nanoTime();
+				for (int i = 0; i < ITERATIONS; i++)
+					for (DataWord a : words)
+						for (DataWord b : words)
+							reference(op, a.clone(), b);
+				System.out.println(op + " (BigInteger): " + (System.nanoTime() - now2) / count + "ns");
+			}
+		} else {
+			System.out.println("Arithmetic performance test is disabled.");
+		}
+	}
+
+	private static void apply(String op, DataWord a, DataWord b) {
+		switch (op) {
+			case "add": a.add(b); break;
+			case "sub": a.sub(b); break;
+			case "mul": a.mul(b); break;
+			case "div": a.div(b); break;
+			case "sDiv": a.sDiv(b); break;
+			case "mod": a.mod(b); break;
+			case "sMod": a.sMod(b); break;
+			default: a.exp(b); break;
+		}
+	}
+
+	/* the op as it was done by BigInteger, from the word to the word */
+	private static byte[] reference(String op, DataWord a, DataWord b) {
+		BigInteger result;
+		switch (op) {
+			case "add": result = a.value().add(b.value()); break;
+			case "sub": result = a.value().subtract(b.value()); break;
+			case "mul": result = a.value().multiply(b.value()); break;
+			case "div": result = b.isZero() ? BigInteger.ZERO : a.value().divide(b.value()); break;
+			case "sDiv": result = b.isZero() ? BigInteger.ZERO : a.sValue().divide(b.sValue()); break;
+			case "mod": result = b.isZero() ? BigInteger.ZERO : a.value().mod(b.value()); break;
+			case "sMod": result = b.isZero() || b.isNegative() ? BigInteger.ZERO : a.sValue().mod(b.sValue()); break;
+			default: result = a.value().modPow(b.value(), MODULUS); break;
+		}
+		return ByteUtil.bigIntegerToBytes(result.mod(MODULUS), 32);
+	}
 }
@@ -0,0 +1,74 @@
+package org.ethereum.vm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.ethereum.crypto.HashUtil;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+public class ProgramCodeTest {
+
+    @Test
+    public void testDecode() {
+        // PUSH2 0x6001 ADD PUSH3 0x0102 (cut)
+        ProgramCode code = ProgramCode.of(Hex.decode("61600101620102"));
+
+        assertEquals(OpCode.PUSH2, code.getOp(0));
+        assertArrayEquals(Hex.decode("6001"), code.getPushData(0));
+        // the data of the push is decoded too, a jump may land there
+        assertEquals(OpCode.PUSH1, code.getOp(1));
+        assertArrayEquals(Hex.decode("01"), code.getPushData(1));
+        assertEquals(OpCode.ADD, code.getOp(3));
+        assertNull(code.getPushData(3));
+        assertEquals(OpCode.PUSH3, code.getOp(4));
+        assertNull(code.getPushData(4));
+    }
+
+    @Test // the saved code is decoded once, the init code by each program
+    public void testCache() {
+        byte[] hash = HashUtil.sha3(Hex.decode("6003600208"));
+        ProgramCode code = ProgramCode.of(Hex.decode("6003600208"), hash);
+        assertSame(code, ProgramCode.of(Hex.decode("6003600208"), hash));
+        assertNotSame(code, ProgramCode.of(Hex.decode("6003600208")));
+    }
+
+    @Test(expected = RuntimeException.class) // PUSH cut by the end of the code
+    public void testPushOverflow() {
+        VM vm = new VM();
+        Program program = new Program(Hex.decode("620102"), new ProgramInvokeMockImpl());
+        try {
+            vm.step(program);
+        } finally {
+            program.getResult().getRepository().close();
+        }
+    }
+
+    @Test // the gas from each op to the end of its block
+    public void testBlockGas() {
+        // PUSH1 1 PUSH1 2 ADD PUSH1 0 MSTORE SLOAD SSTORE STOP
+        ProgramCode code = ProgramCode.of(Hex.decode("6001600201600054565700"));
+
+        assertEquals(5, code.getBlockGas(0));
+        assertEquals(3, code.getBlockGas(4));
+        assertEquals(1, code.getBlockGas(7));
+        // SLOAD ends at SSTORE, which is paid on its own
+        assertEquals(GasCost.SLOAD, code.getBlockGas(8));
+        assertEquals(0, code.getBlockGas(9));
+        assertEquals(0, code.getBlockGas(10));
+    }
+
+    @Test // the ops of the block after the failed op are not paid
+    public void testBlockGasRefund() {
+        VM vm = new VM();
+        // PUSH1 1 ADD PUSH1 1 PUSH1 1
+        Program program = new Program(Hex.decode("60010160016001"), new ProgramInvokeMockImpl());
+        vm.play(program);
+        program.getResult().getRepository().close();
+
+        assertEquals(GasCost.TRANSACTION + 2, program.getResult().getGasUsed());
+    }
+}
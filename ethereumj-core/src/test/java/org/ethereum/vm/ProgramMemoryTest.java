@@ -3,6 +3,7 @@ package org.ethereum.vm;
 import static org.junit.Assert.*;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.ethereum.util.ByteUtil;
 import org.junit.Before;
@@ -332,4 +333,44 @@ public class ProgramMemoryTest {
 		program.allocateMemory(offset, size);
 		assertEquals(32,program.getMemSize());
 	}	
+
+	@Test // the memory grows by the words written, the content is kept
+	public void testMemoryGrowth() {
+
+		for (int i = 0; i < 100; ++i)
+			program.memorySave(i * 32, new DataWord(i + 1).getData());
+		assertEquals(3200, program.getMemSize());
+
+		program.allocateMemory(3200, 16);
+		assertEquals(3232, program.getMemSize());
+		for (int i = 0; i < 100; ++i)
+			assertEquals(new DataWord(i + 1), program.memoryLoad(i * 32));
+		assertEquals(new DataWord(), program.memoryLoad(3200));
+		assertEquals(3232, program.getMemory().length);
+	}
+
+	@Test // a contract storing the words one after another
+	public void testMemorySweepPerformance() {
+		boolean enabled = false;
+
+		if (enabled) {
+			int WORDS = 16384;
+			ByteBuffer code = ByteBuffer.allocate(WORDS * 8);
+			for (int i = 0; i < WORDS; ++i) {
+				// PUSH1 0xff PUSH4 offset MSTORE
+				code.put((byte) 0x60).put((byte) 0xff);
+				code.put((byte) 0x63).putInt(i * 32);
+				code.put((byte) 0x54);
+			}
+
+			long now = System.currentTimeMillis();
+			Program program = new Program(Arrays.copyOf(code.array(), code.position()), new ProgramInvokeMockImpl());
+			new VM().play(program);
+			program.getResult().getRepository().close();
+			System.out.println("Memory sweep of " + WORDS + " words: " + (System.currentTimeMillis() - now) + "ms");
+			assertEquals(WORDS * 32, program.getMemSize());
+		} else {
+			System.out.println("Memory sweep performance test is disabled.");
+		}
+	}
 }
\ No newline at end of file
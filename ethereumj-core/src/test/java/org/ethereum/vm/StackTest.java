@@ -0,0 +1,61 @@
+package org.ethereum.vm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class StackTest {
+
+    @Test // the pushed word is copied, the slots are reused
+    public void testPushPop() {
+        Stack stack = new Stack();
+        DataWord word = new DataWord(7);
+        stack.push(word);
+        word.add(new DataWord(1));
+        assertEquals(new DataWord(7), stack.peek());
+
+        DataWord slot = stack.pop();
+        stack.push(new byte[] { 0x01, 0x02 });
+        assertSame(slot, stack.peek());
+        assertEquals(new DataWord(0x0102), stack.pop());
+        assertEquals(0, stack.size());
+    }
+
+    @Test // the popped words pushed back in the other order move their slots
+    public void testPushPopped() {
+        Stack stack = new Stack();
+        stack.push(new DataWord(1));
+        stack.push(new DataWord(2));
+
+        DataWord word1 = stack.pop();
+        DataWord word2 = stack.pop();
+        stack.push(word1);
+        stack.push(word2);
+
+        assertEquals(new DataWord(1), stack.get(1));
+        assertEquals(new DataWord(2), stack.get(0));
+    }
+
+    @Test
+    public void testDupSwap() {
+        Stack stack = new Stack();
+        stack.push(new DataWord(1));
+        stack.push(new DataWord(2));
+        stack.dup();
+        stack.peek().add(new DataWord(1));
+        stack.swap();
+
+        assertEquals(3, stack.toArray().length);
+        assertEquals(new DataWord(2), stack.pop());
+        assertEquals(new DataWord(3), stack.pop());
+        assertEquals(new DataWord(1), stack.pop());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testOverflow() {
+        Stack stack = new Stack();
+        for (int i = 0; i <= Stack.LIMIT; ++i)
+            stack.push(DataWord.ZERO);
+    }
+}
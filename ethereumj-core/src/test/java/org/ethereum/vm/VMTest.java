@@ -1254,7 +1254,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(expected, Hex.toHexString(program.memory.array()));
+        assertEquals(expected, Hex.toHexString(program.getMemory()));
     }
 
     @Test // MSTORE OP
@@ -1273,7 +1273,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(expected, Hex.toHexString(program.memory.array()));
+        assertEquals(expected, Hex.toHexString(program.getMemory()));
     }
 
     @Test // MSTORE OP
@@ -1295,7 +1295,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(expected, Hex.toHexString(program.memory.array()));
+        assertEquals(expected, Hex.toHexString(program.getMemory()));
     }
 
     @Test // MSTORE OP
@@ -1316,7 +1316,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(expected, Hex.toHexString(program.memory.array()));
+        assertEquals(expected, Hex.toHexString(program.getMemory()));
     }
 
     @Test(expected=RuntimeException.class) // MSTORE OP
@@ -1346,7 +1346,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()));
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()));
         assertEquals(s_expected, Hex.toHexString(program.stack.peek().getData()).toUpperCase());
     }
 
@@ -1364,7 +1364,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()).toUpperCase());
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()).toUpperCase());
         assertEquals(s_expected, Hex.toHexString(program.stack.peek().getData()).toUpperCase());
     }
 
@@ -1382,7 +1382,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()));
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()));
         assertEquals(s_expected, Hex.toHexString(program.stack.peek().getData()).toUpperCase());
     }
 
@@ -1402,7 +1402,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()));
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()));
         assertEquals(s_expected, Hex.toHexString(program.stack.peek().getData()).toUpperCase());
     }
 
@@ -1422,7 +1422,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()));
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()));
         assertEquals(s_expected, Hex.toHexString(program.stack.peek().getData()).toUpperCase());
     }
 
@@ -1452,7 +1452,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()));
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()));
     }
 
 
@@ -1468,7 +1468,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()));
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()));
     }
 
     @Test // MSTORE8 OP
@@ -1484,7 +1484,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()));
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()));
     }
 
     @Test(expected=RuntimeException.class) // MSTORE8 OP mal
@@ -2307,7 +2307,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected_1, Hex.toHexString(program.memory.array()).toUpperCase());
+        assertEquals(m_expected_1, Hex.toHexString(program.getMemory()).toUpperCase());
     }
 
     @Test // CODECOPY OP
@@ -2325,7 +2325,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected_1, Hex.toHexString(program.memory.array()).toUpperCase());
+        assertEquals(m_expected_1, Hex.toHexString(program.getMemory()).toUpperCase());
     }
 
     @Test // CODECOPY OP
@@ -2560,7 +2560,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()).toUpperCase());
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()).toUpperCase());
     }
 
     @Test // CALLDATACOPY OP
@@ -2579,7 +2579,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()).toUpperCase());
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()).toUpperCase());
     }
 
 
@@ -2599,7 +2599,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()).toUpperCase());
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()).toUpperCase());
     }
 
 
@@ -2620,7 +2620,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()).toUpperCase());
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()).toUpperCase());
     }
 
     @Test // CALLDATACOPY OP
@@ -2640,7 +2640,7 @@ public class VMTest {
         vm.step(program);
 
         program.getResult().getRepository().close();
-        assertEquals(m_expected, Hex.toHexString(program.memory.array()).toUpperCase());
+        assertEquals(m_expected, Hex.toHexString(program.getMemory()).toUpperCase());
     }
 
 
@@ -18,8 +18,8 @@ import org.ethereum.core.Account;
 import org.ethereum.core.AccountState;
 import org.ethereum.core.Denomination;
 import org.ethereum.crypto.HashUtil;
+import org.ethereum.db.KeyValueStore;
 import org.ethereum.manager.WorldManager;
-import org.iq80.leveldb.DBIterator;
 import org.spongycastle.util.Arrays;
 import org.spongycastle.util.encoders.Hex;
 
@@ -58,7 +58,7 @@ public class AccountsListWindow  extends JFrame {
 			
 			@Override
 			public void run(){
-				DBIterator i = WorldManager.getInstance().getRepository().getAccountsIterator();
+				KeyValueStore.RowIterator i = WorldManager.getInstance().getRepository().getAccountsIterator();
 				while(i.hasNext()) {
 					DataClass dc = new DataClass();
 					dc.address = i.next().getKey();
@@ -68,6 +68,7 @@ public class AccountsListWindow  extends JFrame {
 					
 					adapter.addDataPiece(dc);
 				}
+				i.close();
 			}
 		}.start();
 	}